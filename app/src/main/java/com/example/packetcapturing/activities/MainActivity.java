@@ -8,8 +8,11 @@ import android.net.VpnService;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
+import android.widget.EditText;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -20,22 +23,28 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.packetcapturing.R;
 import com.example.packetcapturing.adapter.LogAdapter;
 import com.example.packetcapturing.managers.RawPacketManager;
-import com.example.packetcapturing.model.RawPacket;
-import com.example.packetcapturing.pcaputils.PcapFileHeader;
-import com.example.packetcapturing.pcaputils.PcapRecord;
 import com.example.packetcapturing.services.SnifferService;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Date;
-import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
     private static final int VPN_REQUEST_CODE = 0x0F;
+    private static final long LOG_UPDATE_INTERVAL_MILLIS = 500;
     Intent serviceIntent;
     RecyclerView rv;
+    EditText captureFilter;
+    EditText snapLength;
     LogAdapter adapter;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable logUpdater = new Runnable() {
+        @Override
+        public void run() {
+            adapter.update();
+            handler.postDelayed(this, LOG_UPDATE_INTERVAL_MILLIS);
+        }
+    };
 
     @RequiresApi(api = Build.VERSION_CODES.M)
     @Override
@@ -50,12 +59,26 @@ public class MainActivity extends AppCompatActivity {
 
         serviceIntent = new Intent(this, SnifferService.class);
         rv = findViewById(R.id.recycler_view);
+        captureFilter = findViewById(R.id.capture_filter);
+        snapLength = findViewById(R.id.snap_length);
 
         adapter = new LogAdapter(this);
         rv.setAdapter(adapter);
 
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(logUpdater);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(logUpdater);
+    }
+
     //request external memory permission
 
     private boolean shouldAskPermissions() {
@@ -90,23 +113,22 @@ public class MainActivity extends AppCompatActivity {
     }
 
     public void updateLog(View v) {
-        adapter.notifyDataSetChanged();
+        adapter.update();
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == VPN_REQUEST_CODE && resultCode == RESULT_OK) {
+            serviceIntent.putExtra(SnifferService.EXTRA_CAPTURE_FILTER, captureFilter.getText().toString());
+            serviceIntent.putExtra(SnifferService.EXTRA_SNAP_LENGTH, snapLength.getText().toString());
             startService(serviceIntent);
         }
     }
 
     public void writeFile(View v) {
-        ((Runnable) () -> {
-            RawPacketManager.getInstance().disableAdd();
-
-            List<RawPacket> list = RawPacketManager.getInstance().packetList;
-
+        // Export runs off the UI thread, capture keeps running while the ring is written out
+        new Thread(() -> {
             String path = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "Sniffer";
             Log.d("Sniffer", path);
 
@@ -116,27 +138,14 @@ public class MainActivity extends AppCompatActivity {
             }
 
             Date date = new Date(System.currentTimeMillis());
-            String fileName = "Pcap_file_" + date.getHours() + "_" + date.getMinutes() + "_" + date.getSeconds() + "_" + date.getDate() + "_" + (date.getMonth() + 1) + "_" + date.getYear() + ".pcap";
+            String fileName = "Pcap_file_" + date.getHours() + "_" + date.getMinutes() + "_" + date.getSeconds() + "_" + date.getDate() + "_" + (date.getMonth() + 1) + "_" + date.getYear() + ".pcapng.gz";
             File file = new File(dir, fileName);
 
             try {
-                if (!file.isFile() || !file.exists()) file.createNewFile();
-
-                FileOutputStream fos = new FileOutputStream(file);
-                PcapFileHeader header = new PcapFileHeader();
-                header.writeToStream(fos);
-
-                for (RawPacket packet : list) {
-                    PcapRecord record = new PcapRecord(packet.getTimeVal(), packet.getData(), packet.getIp4Header(), packet.getProtocolHeader());
-                    record.writeToStream(fos);
-                }
-
-                fos.close();
-
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                RawPacketManager.getInstance().export(file);
+            } catch (IOException | IllegalStateException e) {
+                Log.e("Sniffer", "Export failed: " + file, e);
             }
-
-        }).run();
+        }).start();
     }
 }
\ No newline at end of file
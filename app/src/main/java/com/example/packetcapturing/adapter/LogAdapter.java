@@ -13,15 +13,46 @@ import com.example.packetcapturing.R;
 import com.example.packetcapturing.managers.SnifferLogManager;
 import com.example.packetcapturing.model.LogModel;
 
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Connection log rows. The list is only touched on the UI thread, {@link #update()} moves new
+ * records over from SnifferLogManager and notifies only the rows that changed.
+ */
 public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder> {
-    List<LogModel> logList;
+    private static final int MAX_ROWS = 5000;
+    private static final int MAX_DRAIN = 512;
+
+    private final List<LogModel> logList = new ArrayList<>();
     private final Context context;
+    // Rows removed from the front, so ids stay the same as the list is trimmed
+    private long removedRows;
 
     public LogAdapter(Context context) {
         this.context = context;
-        logList = SnifferLogManager.getInstance().logList;
+    }
+
+    /**
+     * Appends every record logged since the last update. Returns the number of rows added.
+     */
+    public int update() {
+        int added = 0;
+        int count;
+        do {
+            int start = logList.size();
+            count = SnifferLogManager.getInstance().drain(logList, MAX_DRAIN);
+            if (count > 0) notifyItemRangeInserted(start, count);
+            added += count;
+        } while (count == MAX_DRAIN);
+
+        int excess = logList.size() - MAX_ROWS;
+        if (excess > 0) {
+            logList.subList(0, excess).clear();
+            removedRows += excess;
+            notifyItemRangeRemoved(0, excess);
+        }
+        return added;
     }
 
     @NonNull
@@ -42,11 +73,11 @@ public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder> {
         LogModel model = logList.get(position);
         String address = model.address;
         int port = model.port;
-        String time = "" + System.currentTimeMillis();
+        String time = Long.toString(model.timeVal);
         String protocol = model.protocol;
         String hostName = model.hostName;
         holder.addressTV.setText(address);
-        holder.idTV.setText(Integer.toString(position+1));
+        holder.idTV.setText(Long.toString(removedRows + position + 1));
         holder.hostnameTV.setText(hostName);
         holder.portTV.setText(Integer.toString(port));
         holder.timeTV.setText(time);
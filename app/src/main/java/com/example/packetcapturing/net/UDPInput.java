@@ -1,69 +0,0 @@
-package com.example.packetcapturing.net;
-
-import android.util.Log;
-
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
-public class UDPInput implements Runnable {
-    private static final String TAG = UDPInput.class.getSimpleName();
-    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE;
-
-    private final Selector selector;
-    private final ConcurrentLinkedQueue<ByteBuffer> outputQueue;
-
-    public UDPInput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, Selector selector) {
-        this.outputQueue = outputQueue;
-        this.selector = selector;
-    }
-
-    @Override
-    public void run() {
-        try {
-            Log.i(TAG, "Started");
-            while (!Thread.interrupted()) {
-                int readyChannels = selector.select();
-
-                if (readyChannels == 0) {
-                    Thread.sleep(10);
-                    continue;
-                }
-
-                Set<SelectionKey> keys = selector.selectedKeys();
-                Iterator<SelectionKey> keyIterator = keys.iterator();
-
-                while (keyIterator.hasNext() && !Thread.interrupted()) {
-                    SelectionKey key = keyIterator.next();
-                    if (key.isValid() && key.isReadable()) {
-                        keyIterator.remove();
-
-                        ByteBuffer receiveBuffer = ByteBufferPool.acquire();
-                        // Leave space for the header
-                        receiveBuffer.position(HEADER_SIZE);
-
-                        DatagramChannel inputChannel = (DatagramChannel) key.channel();
-                        // XXX: We should handle any IOExceptions here immediately,
-                        // but that probably won't happen with UDP
-                        int readBytes = inputChannel.read(receiveBuffer);
-
-                        Packet referencePacket = (Packet) key.attachment();
-                        referencePacket.updateUDPBuffer(receiveBuffer, readBytes);
-                        receiveBuffer.position(HEADER_SIZE + readBytes);
-
-                        outputQueue.offer(receiveBuffer);
-                    }
-                }
-            }
-        } catch (InterruptedException e) {
-            Log.i(TAG, "Stopping");
-        } catch (IOException e) {
-            Log.w(TAG, e.toString(), e);
-        }
-    }
-}
@@ -0,0 +1,13 @@
+package com.example.packetcapturing.services;
+
+import android.util.Log;
+
+/**
+ * Sends the engine's log to logcat. The priorities of the engine's Log match android.util.Log.
+ */
+public class AndroidLogger implements com.example.packetcapturing.platform.Log.Logger {
+    @Override
+    public void log(int priority, String tag, String message, Throwable throwable) {
+        Log.println(priority, tag, throwable == null ? message : message + '\n' + Log.getStackTraceString(throwable));
+    }
+}
@@ -6,39 +6,46 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.VpnService;
+import android.os.Build;
+import android.os.Environment;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.example.packetcapturing.R;
-import com.example.packetcapturing.managers.RawPacketManager;
-import com.example.packetcapturing.model.RawPacket;
-import com.example.packetcapturing.net.ByteBufferPool;
-import com.example.packetcapturing.net.FileWriterThread;
+import com.example.packetcapturing.net.CaptureFilter;
+import com.example.packetcapturing.net.FileDescriptorTunnel;
 import com.example.packetcapturing.net.Packet;
-import com.example.packetcapturing.net.TCPInput;
-import com.example.packetcapturing.net.TCPOutput;
-import com.example.packetcapturing.net.UDPInput;
-import com.example.packetcapturing.net.UDPOutput;
-
-import java.io.Closeable;
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import com.example.packetcapturing.net.ProxyEngine;
+import com.example.packetcapturing.net.SnapLength;
+import com.example.packetcapturing.net.TCPEngine;
+import com.example.packetcapturing.platform.SocketProtector;
+
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.Selector;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
-public class SnifferService extends VpnService {
+public class SnifferService extends VpnService implements SocketProtector {
 
     public static final String STOP_SERVICE_ACTION = "com.example.packetcapturing.STOP_SERVICE";
+    // Capture filter expression, see CaptureFilter. Sent again to a running service to change it
+    public static final String EXTRA_CAPTURE_FILTER = "com.example.packetcapturing.CAPTURE_FILTER";
+    // Snap length spec, see SnapLength. Only read by the start that brings the service up
+    public static final String EXTRA_SNAP_LENGTH = "com.example.packetcapturing.SNAP_LENGTH";
     private static final String TAG = SnifferService.class.getSimpleName();
     private static final String VPN_ADDRESS = "10.0.0.2"; // Only IPv4 support for now
     private static final String VPN_ROUTE = "0.0.0.0"; // Intercept everything
+    // Number of independent TCP selector/worker pairs, connections are spread over them by 4-tuple
+    private static final int TCP_SHARD_COUNT = TCPEngine.defaultShardCount();
+    // Heap budget for TCP connection state, about 4096 concurrent connections
+    private static final long TCP_MEMORY_BUDGET = 8 * 1024 * 1024;
+    // Capture files are gzipped and rotated hourly or at 32 MB, keeping the last 32, so a
+    // capture left running never takes more than about 1 GB of storage
+    private static final long CAPTURE_FILE_BYTES = 32 * 1024 * 1024;
+    private static final long CAPTURE_FILE_MILLIS = 60 * 60 * 1000;
+    private static final int CAPTURE_FILES = 32;
     private static boolean isRunning = false;
     private ParcelFileDescriptor vpnInterface = null;    private final BroadcastReceiver stopServiceReceiver = new BroadcastReceiver() {
         @Override
@@ -51,14 +58,7 @@ public class SnifferService extends VpnService {
         }
     };
     private PendingIntent pendingIntent;
-    private ConcurrentLinkedQueue<Packet> deviceToNetworkUDPQueue;
-    private ConcurrentLinkedQueue<Packet> deviceToNetworkTCPQueue;
-    private ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue;
-    private ConcurrentLinkedQueue<Packet> packetQueue;
-    private ExecutorService executorService;
-    private Selector udpSelector;
-    private Selector tcpSelector;
-    private Selector packetSelector;
+    private ProxyEngine proxyEngine;
     public SnifferService() {
     }
 
@@ -66,41 +66,17 @@ public class SnifferService extends VpnService {
         return isRunning;
     }
 
-    // TODO: Move this to a "utils" class for reuse
-    private static void closeResources(Closeable... resources) {
-        for (Closeable resource : resources) {
-            try {
-                resource.close();
-            } catch (IOException e) {
-                // Ignore
-            }
-        }
-    }
-
     @Override
     public void onCreate() {
         super.onCreate();
         registerReceiver(stopServiceReceiver, new IntentFilter(STOP_SERVICE_ACTION));
         isRunning = true;
+        com.example.packetcapturing.platform.Log.setLogger(new AndroidLogger());
         setupVPN();
         try {
-            udpSelector = Selector.open();
-            tcpSelector = Selector.open();
-            packetSelector = Selector.open();
-            deviceToNetworkUDPQueue = new ConcurrentLinkedQueue<>();
-            deviceToNetworkTCPQueue = new ConcurrentLinkedQueue<>();
-            networkToDeviceQueue = new ConcurrentLinkedQueue<>();
-            packetQueue = new ConcurrentLinkedQueue<>();
-
-            executorService = Executors.newFixedThreadPool(6);
-            executorService.submit(new UDPInput(networkToDeviceQueue, udpSelector));
-            executorService.submit(new UDPOutput(deviceToNetworkUDPQueue, udpSelector, this));
-            executorService.submit(new TCPInput(networkToDeviceQueue, tcpSelector,packetQueue,packetSelector));
-            executorService.submit(new TCPOutput(deviceToNetworkTCPQueue, networkToDeviceQueue, tcpSelector, this,packetQueue,packetSelector));
-            executorService.submit(new VPNRunnable(vpnInterface.getFileDescriptor(), deviceToNetworkUDPQueue, deviceToNetworkTCPQueue, networkToDeviceQueue));
-            executorService.submit(new FileWriterThread(packetQueue,packetSelector));
-
-            Log.i(TAG, "Started");
+            // Started by onStartCommand, which has the capture settings
+            proxyEngine = new ProxyEngine(this, TCP_SHARD_COUNT, TCP_MEMORY_BUDGET);
+            proxyEngine.setCaptureRotation(true, CAPTURE_FILE_BYTES, CAPTURE_FILE_MILLIS, CAPTURE_FILES);
         } catch (IOException e) {
             // TODO: Here and elsewhere, we should explicitly notify the user of any errors
             // and suggest that they stop the service, since we can't do it ourselves
@@ -114,15 +90,53 @@ public class SnifferService extends VpnService {
             Builder builder = new Builder();
             builder.addAddress(VPN_ADDRESS, 32);
             builder.addRoute(VPN_ROUTE, 1);
+            // The MSS advertised in synthesized SYN-ACKs is derived from this
+            builder.setMtu(Packet.MTU);
+            // A blocking descriptor lets TunnelReader sleep in read() instead of polling
+            if (isBlockingTunnel()) builder.setBlocking(true);
             vpnInterface = builder.setSession(getString(R.string.app_name)).setConfigureIntent(pendingIntent).establish();
         }
     }
 
+    private static File createCaptureFile() {
+        File dir = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "Sniffer");
+        if (!dir.exists()) dir.mkdirs();
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        return new File(dir, "Capture_" + timestamp + ".pcapng");
+    }
+
+    private static boolean isBlockingTunnel() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (proxyEngine == null) return START_STICKY;
+        // A sticky restart has no intent, the engine then captures everything
+        if (intent != null) {
+            try {
+                proxyEngine.setCaptureFilter(CaptureFilter.compile(intent.getStringExtra(EXTRA_CAPTURE_FILTER)));
+            } catch (IllegalArgumentException e) {
+                showError(e);
+            }
+        }
+        if (!proxyEngine.isStarted()) {
+            try {
+                if (intent != null) proxyEngine.setSnapLength(SnapLength.parse(intent.getStringExtra(EXTRA_SNAP_LENGTH)));
+            } catch (IllegalArgumentException e) {
+                showError(e);
+            }
+            proxyEngine.start(new FileDescriptorTunnel(vpnInterface.getFileDescriptor()), isBlockingTunnel(), createCaptureFile());
+            Log.i(TAG, "Started");
+        }
         return START_STICKY;
     }
 
+    private void showError(IllegalArgumentException e) {
+        Log.w(TAG, e.getMessage());
+        Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+    }
+
     public void stopService() {
         unregisterReceiver(stopServiceReceiver);
         stopSelf();
@@ -135,7 +149,6 @@ public class SnifferService extends VpnService {
         Log.i(TAG, "Stop request called");
         super.onDestroy();
         isRunning = false;
-        executorService.shutdownNow();
         cleanup();
 
         Log.i(TAG, "Stopped");
@@ -143,108 +156,12 @@ public class SnifferService extends VpnService {
     }
 
     private void cleanup() {
-        deviceToNetworkTCPQueue = null;
-        deviceToNetworkUDPQueue = null;
-        networkToDeviceQueue = null;
-        ByteBufferPool.clear();
-        closeResources(udpSelector, tcpSelector, vpnInterface);
-    }
-
-    private static class VPNRunnable implements Runnable {
-        private static final String TAG = VPNRunnable.class.getSimpleName();
-
-        private final FileDescriptor vpnFileDescriptor;
-
-        private final ConcurrentLinkedQueue<Packet> deviceToNetworkUDPQueue;
-        private final ConcurrentLinkedQueue<Packet> deviceToNetworkTCPQueue;
-        private final ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue;
-
-        public VPNRunnable(FileDescriptor vpnFileDescriptor, ConcurrentLinkedQueue<Packet> deviceToNetworkUDPQueue, ConcurrentLinkedQueue<Packet> deviceToNetworkTCPQueue, ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue) {
-            this.vpnFileDescriptor = vpnFileDescriptor;
-            this.deviceToNetworkUDPQueue = deviceToNetworkUDPQueue;
-            this.deviceToNetworkTCPQueue = deviceToNetworkTCPQueue;
-            this.networkToDeviceQueue = networkToDeviceQueue;
-        }
-
-        @Override
-        public void run() {
-            Log.i(TAG, "Started");
-
-            FileChannel vpnInput = new FileInputStream(vpnFileDescriptor).getChannel();
-            FileChannel vpnOutput = new FileOutputStream(vpnFileDescriptor).getChannel();
-
-            try {
-                ByteBuffer bufferToNetwork = null;
-                boolean dataSent = true;
-                boolean dataReceived;
-                while (!Thread.interrupted()) {
-                    if (dataSent) bufferToNetwork = ByteBufferPool.acquire();
-                    else bufferToNetwork.clear();
-
-                    // TODO: Block when not connected
-                    int readBytes = vpnInput.read(bufferToNetwork);
-                    if (readBytes > 0) {
-                        dataSent = true;
-                        bufferToNetwork.flip();
-                        bufferToNetwork.limit(readBytes);
-                        bufferToNetwork.position(0);
-
-                        Packet packet = new Packet(bufferToNetwork);
-                        /*Log.d(TAG,"TO NET:");
-                        IPPacket ipPacket = IPHelper.parse(bufferToNetwork.array());
-                        Log.d(TAG, ipPacket.getPacketInfo() + "\nHOST NAME: " + ipPacket.getHostName());*/
-
-                        byte[] protocolHeader;
-                        if (packet.isTCP()) protocolHeader = packet.tcpHeader.getHeaderInBytes();
-                        else protocolHeader = packet.udpHeader.getHeaderInBytes();
-                        RawPacket rawPacket = new RawPacket(System.currentTimeMillis(), packet.ip4Header.getHeaderInBytes(), protocolHeader, packet.backingBuffer.array());
-                        packet.backingBuffer.position(0);
-
-                        RawPacketManager.getInstance().addRawPacket(rawPacket);
-
-                        if (packet.isUDP()) {
-                            deviceToNetworkUDPQueue.offer(packet);
-                        } else if (packet.isTCP()) {
-                            deviceToNetworkTCPQueue.offer(packet);
-                        } else {
-                            Log.w(TAG, "Unknown packet type");
-                            Log.w(TAG, packet.ip4Header.toString());
-                            dataSent = false;
-                        }
-                    } else {
-                        dataSent = false;
-                    }
-
-                    ByteBuffer bufferFromNetwork = networkToDeviceQueue.poll();
-                    if (bufferFromNetwork != null) {
-                        bufferFromNetwork.flip();
-                        while (bufferFromNetwork.hasRemaining()) vpnOutput.write(bufferFromNetwork);
-                        dataReceived = true;
-/*
-                        Log.d(TAG,"FROM NET:");
-                        IPPacket ipPacket = IPHelper.parse(bufferFromNetwork.array());
-                        Log.d(TAG, ipPacket.getPacketInfo() + "\nHOST NAME: " + ipPacket.getHostName());*/
-                        ByteBufferPool.release(bufferFromNetwork);
-                        byte[] dataArray = bufferToNetwork.array();
-                        //RawPacketManager.getInstance().addRawPacket(new RawPacket(System.currentTimeMillis(),dataArray,dataArray.length));
-
-                    } else {
-                        dataReceived = false;
-                    }
-
-                    // TODO: Sleep-looping is not very battery-friendly, consider blocking instead
-                    // Confirm if throughput with ConcurrentQueue is really higher compared to BlockingQueue
-                    if (!dataSent && !dataReceived) Thread.sleep(10);
-                }
-            } catch (InterruptedException e) {
-                Log.i(TAG, "Stopping");
-            } catch (IOException e) {
-                Log.w(TAG, e.toString(), e);
-            } finally {
-                closeResources(vpnInput, vpnOutput);
-            }
+        if (proxyEngine != null) proxyEngine.close();
+        if (vpnInterface == null) return;
+        try {
+            vpnInterface.close();
+        } catch (IOException e) {
+            // Ignore
         }
     }
-
-
-}
\ No newline at end of file
+}
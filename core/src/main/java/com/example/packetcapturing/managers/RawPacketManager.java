@@ -0,0 +1,222 @@
+package com.example.packetcapturing.managers;
+
+import com.example.packetcapturing.net.CaptureSink;
+import com.example.packetcapturing.net.DnsCache;
+import com.example.packetcapturing.net.RotatingFileSink;
+import com.example.packetcapturing.pcaputils.PcapFileHeader;
+import com.example.packetcapturing.pcaputils.PcapRecord;
+import com.example.packetcapturing.pcaputils.PcapngWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the last {@link #CAPACITY} bytes of captured packets in one preallocated off-heap ring.
+ * New packets overwrite the oldest ones, so the capture can stay on indefinitely.
+ *
+ * Each record is a 16-byte header (int captured length, int original length with the direction
+ * in its upper half, long time in nanoseconds) followed by the captured bytes of the IP packet,
+ * and may wrap around the end of the ring. Positions are absolute byte counts since start;
+ * {@code tail} is the oldest record still in the ring and {@code head} is where the next one goes.
+ */
+public class RawPacketManager {
+    public static final int CAPACITY = 16 * 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int EXPORT_BUFFER_SIZE = 128 * 1024;
+
+    private static RawPacketManager INSTANCE = null;
+
+    private final ByteBuffer ring;
+    private long head;
+    private long tail;
+
+    // While an export runs, records in [exportCursor, exportEnd) belong to its snapshot and are
+    // not overwritten. New packets that would need their space are dropped instead.
+    private boolean exporting;
+    private long exportCursor;
+    private long exportEnd;
+
+    private long overwrittenPackets;
+    private long droppedPackets;
+
+    private RawPacketManager() {
+        ring = ByteBuffer.allocateDirect(CAPACITY);
+    }
+
+    public static synchronized RawPacketManager getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new RawPacketManager();
+
+        return INSTANCE;
+    }
+
+    /**
+     * Copies the first {@code length} bytes of {@code packet}, which is originalLength bytes
+     * long, into the ring. direction is one of RawPacket's. The buffer's position and limit are
+     * left as they were. Called from both tunnel threads.
+     */
+    public synchronized void addPacket(long timestampNanos, ByteBuffer packet, int length, int originalLength, int direction) {
+        long recordSize = RECORD_HEADER_SIZE + length;
+        if (recordSize > CAPACITY) {
+            droppedPackets++;
+            return;
+        }
+
+        while (head + recordSize - tail > CAPACITY) {
+            if (exporting && tail >= exportCursor && tail < exportEnd) {
+                droppedPackets++;
+                return;
+            }
+            tail += RECORD_HEADER_SIZE + getInt(tail);
+            overwrittenPackets++;
+        }
+
+        putInt(head, length);
+        putInt(head + 4, direction << 16 | originalLength); // IPv4 lengths fit in 16 bits
+        putLong(head + 8, timestampNanos);
+
+        int position = packet.position();
+        int limit = packet.limit();
+        packet.limit(length);
+        packet.position(0);
+        putBytes(head + RECORD_HEADER_SIZE, packet);
+        packet.limit(limit);
+        packet.position(position);
+
+        head += recordSize;
+    }
+
+    /**
+     * Writes the packets in the ring at the time of the call to a PCAP file, or a pcapng one if
+     * the name ends in .pcapng, gzip compressed if it further ends in .gz, and the host names
+     * learned from DNS to a .hosts file next to it. Capture keeps running meanwhile, it only
+     * drops packets that would overwrite ones not exported yet.
+     */
+    public void export(File file) throws IOException {
+        synchronized (this) {
+            if (exporting) throw new IllegalStateException("Export already in progress");
+            exporting = true;
+            exportCursor = tail;
+            exportEnd = head;
+        }
+
+        boolean compress = file.getName().endsWith(".gz");
+        File captureFile = compress ? new File(file.getPath().substring(0, file.getPath().length() - 3)) : file;
+        boolean pcapng = captureFile.getName().endsWith(".pcapng");
+        CaptureSink sink = new RotatingFileSink(captureFile, compress, 0, 0, 0);
+        try {
+            ByteBuffer exportBuffer = ByteBuffer.allocateDirect(EXPORT_BUFFER_SIZE);
+            if (pcapng) {
+                PcapngWriter.writeSectionHeader(exportBuffer, "Packet Capturing");
+                PcapngWriter.writeInterfaceDescription(exportBuffer, "tun0", 0);
+            } else {
+                exportBuffer.put(new PcapFileHeader().getBytes());
+            }
+            exportBuffer.flip();
+            sink.open(exportBuffer);
+            exportBuffer.clear();
+            boolean done = false;
+            while (!done) {
+                synchronized (this) {
+                    while (exportCursor < exportEnd) {
+                        int length = getInt(exportCursor);
+                        int originalLength = getInt(exportCursor + 4) & 0xFFFF;
+                        int direction = getInt(exportCursor + 4) >>> 16;
+                        long timestampNanos = getLong(exportCursor + 8);
+                        if (pcapng) {
+                            if (PcapngWriter.enhancedPacketSize(length) > exportBuffer.remaining()) break;
+                            PcapngWriter.writeEnhancedPacketHeader(exportBuffer, timestampNanos, length, originalLength);
+                            getBytes(exportCursor + RECORD_HEADER_SIZE, length, exportBuffer);
+                            PcapngWriter.writeEnhancedPacketTrailer(exportBuffer, length, direction);
+                        } else {
+                            if (PcapRecord.PACKET_HEADER_SIZE + PcapRecord.LINK_LAYER_HEADER_SIZE + length > exportBuffer.remaining()) break;
+                            PcapRecord.writeRecordHeader(exportBuffer, timestampNanos, length, originalLength);
+                            getBytes(exportCursor + RECORD_HEADER_SIZE, length, exportBuffer);
+                        }
+                        exportCursor += RECORD_HEADER_SIZE + length;
+                    }
+                    done = exportCursor >= exportEnd;
+                }
+                exportBuffer.flip();
+                if (exportBuffer.hasRemaining()) sink.write(exportBuffer);
+                exportBuffer.clear();
+            }
+        } finally {
+            synchronized (this) {
+                exporting = false;
+            }
+            sink.close();
+        }
+        DnsCache.getInstance().writeHostsFile(new File(captureFile.getPath() + ".hosts"));
+    }
+
+    public synchronized long getOverwrittenPackets() {
+        return overwrittenPackets;
+    }
+
+    public synchronized long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    public synchronized long getUsedBytes() {
+        return head - tail;
+    }
+
+    // Ring accessors, positions are absolute and may wrap
+
+    private int offset(long position) {
+        return (int) (position % CAPACITY);
+    }
+
+    private int getInt(long position) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) value = (value << 8) | (ring.get(offset(position + i)) & 0xFF);
+        return value;
+    }
+
+    private long getLong(long position) {
+        return ((long) getInt(position) << 32) | (getInt(position + 4) & 0xFFFFFFFFL);
+    }
+
+    private void putInt(long position, int value) {
+        for (int i = 0; i < 4; i++) ring.put(offset(position + i), (byte) (value >>> (24 - 8 * i)));
+    }
+
+    private void putLong(long position, long value) {
+        putInt(position, (int) (value >>> 32));
+        putInt(position + 4, (int) value);
+    }
+
+    private void putBytes(long position, ByteBuffer source) {
+        int start = offset(position);
+        int firstPart = Math.min(source.remaining(), CAPACITY - start);
+        int limit = source.limit();
+
+        source.limit(source.position() + firstPart);
+        ring.position(start);
+        ring.put(source);
+
+        source.limit(limit);
+        if (source.hasRemaining()) {
+            ring.position(0);
+            ring.put(source);
+        }
+    }
+
+    private void getBytes(long position, int length, ByteBuffer destination) {
+        int start = offset(position);
+        int firstPart = Math.min(length, CAPACITY - start);
+
+        ring.limit(start + firstPart);
+        ring.position(start);
+        destination.put(ring);
+
+        if (firstPart < length) {
+            ring.limit(length - firstPart);
+            ring.position(0);
+            destination.put(ring);
+        }
+        ring.clear();
+    }
+}
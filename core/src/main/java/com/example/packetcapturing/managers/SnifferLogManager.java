@@ -0,0 +1,102 @@
+package com.example.packetcapturing.managers;
+
+import com.example.packetcapturing.model.LogModel;
+import com.example.packetcapturing.net.DnsCache;
+import com.example.packetcapturing.net.PacketView;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Connection log shared by the network threads and the UI. Network threads write fixed-size
+ * records into a lock-free ring with {@link #add(int, int, int)}, which allocates nothing and
+ * drops the record when the ring is full. The UI thread is the only consumer and turns records
+ * into {@link LogModel}s in batches with {@link #drain(List, int)}.
+ */
+public class SnifferLogManager {
+    private static final int CAPACITY = 4096; // Power of two
+    private static final int MASK = CAPACITY - 1;
+
+    private static final SnifferLogManager INSTANCE = new SnifferLogManager();
+
+    private final long[] times = new long[CAPACITY];
+    private final int[] addresses = new int[CAPACITY];
+    private final int[] portsAndProtocols = new int[CAPACITY];
+    // Sequence number of the record each slot holds, set once the record is complete
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+
+    private final AtomicLong writeSequence = new AtomicLong();
+    private volatile long readSequence;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private SnifferLogManager() {
+        for (int i = 0; i < CAPACITY; i++) published.set(i, -1);
+    }
+
+    public static SnifferLogManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a packet from the given remote address and port. protocol is the IP protocol number.
+     */
+    public void add(int protocol, int address, int port) {
+        long sequence;
+        do {
+            sequence = writeSequence.get();
+            if (sequence - readSequence >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!writeSequence.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & MASK;
+        times[slot] = System.currentTimeMillis();
+        addresses[slot] = address;
+        portsAndProtocols[slot] = (port << 8) | (protocol & 0xFF);
+        published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Moves up to max records into the list and returns how many were added. Only one thread may
+     * drain.
+     */
+    public int drain(List<LogModel> into, int max) {
+        long sequence = readSequence;
+        int count = 0;
+        DnsCache dnsCache = DnsCache.getInstance();
+        while (count < max) {
+            int slot = (int) sequence & MASK;
+            if (published.get(slot) != sequence) break; // Empty, or still being written
+
+            int address = addresses[slot];
+            int portAndProtocol = portsAndProtocols[slot];
+            String hostName = dnsCache.lookup(address);
+            into.add(new LogModel(4, protocolName(portAndProtocol & 0xFF), PacketView.formatAddress(address),
+                    portAndProtocol >>> 8, hostName != null ? hostName : "...", times[slot]));
+            sequence++;
+            count++;
+        }
+        readSequence = sequence;
+        return count;
+    }
+
+    /**
+     * Records dropped because the UI did not drain the ring in time.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private static String protocolName(int protocol) {
+        switch (protocol) {
+            case PacketView.PROTOCOL_TCP:
+                return "TCP";
+            case PacketView.PROTOCOL_UDP:
+                return "UDP";
+            default:
+                return Integer.toString(protocol);
+        }
+    }
+}
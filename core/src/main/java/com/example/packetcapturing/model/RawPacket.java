@@ -0,0 +1,56 @@
+package com.example.packetcapturing.model;
+
+/**
+ * A captured packet: the bytes kept from the start of its IP header, which may stop short of
+ * the whole packet under a snap length, the packet's real length, its capture time in
+ * nanoseconds since the epoch and which way it crossed the tunnel.
+ */
+public class RawPacket {
+    // Seen from the device, with the values pcapng uses in epb_flags
+    public static final int DIRECTION_INBOUND = 1;
+    public static final int DIRECTION_OUTBOUND = 2;
+
+    private long timestampNanos;
+    private byte[] data;
+    private int originalLength;
+    private int direction;
+
+    public RawPacket(long timestampNanos, byte[] data, int originalLength, int direction) {
+        this.timestampNanos = timestampNanos;
+        this.data = data;
+        this.originalLength = originalLength;
+        this.direction = direction;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public void setTimestampNanos(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public int getOriginalLength() {
+        return originalLength;
+    }
+
+    public void setOriginalLength(int originalLength) {
+        this.originalLength = originalLength;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public void setDirection(int direction) {
+        this.direction = direction;
+    }
+}
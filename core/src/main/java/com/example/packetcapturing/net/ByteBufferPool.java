@@ -0,0 +1,237 @@
+package com.example.packetcapturing.net;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct buffers in three size classes. Each thread keeps a small magazine of free buffers per
+ * class in front of a shared depot, so acquire/release normally touch no shared state. Direct
+ * memory is capped at {@link #MAX_DIRECT_BYTES}; past that, acquire falls back to heap buffers,
+ * which are not pooled.
+ *
+ * Every direct buffer is tracked by a phantom reference. One that is garbage collected without
+ * having been dropped by {@link #clear()} was never released, and is counted as leaked.
+ */
+public class ByteBufferPool {
+    public static final int SMALL = 128; // Control segments, including SYN-ACK options
+    public static final int MEDIUM = 2048; // Anything up to the tunnel MTU
+    public static final int LARGE = 16384;
+    private static final int[] CLASS_SIZES = {SMALL, MEDIUM, LARGE};
+
+    public static final long MAX_DIRECT_BYTES = 32 * 1024 * 1024;
+    private static final int MAGAZINE_SIZE = 32;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer>[] depots = newDepots();
+    private static final ThreadLocal<Magazine> magazines = new ThreadLocal<>();
+    private static final List<Magazine> registry = new ArrayList<>();
+
+    private static final AtomicLong directBytes = new AtomicLong();
+    private static final ReferenceQueue<ByteBuffer> collectedQueue = new ReferenceQueue<>();
+    private static final Set<BufferReference> references = Collections.newSetFromMap(new ConcurrentHashMap<BufferReference, Boolean>());
+    private static final AtomicLong collected = new AtomicLong();
+    private static final AtomicLong discarded = new AtomicLong();
+    // Counters of magazines dropped by clear()
+    private static long retiredHits, retiredMisses, retiredHeapFallbacks, retiredAcquired, retiredReleased;
+
+    private static ConcurrentLinkedQueue<ByteBuffer>[] newDepots() {
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedQueue<ByteBuffer>[] queues = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[CLASS_SIZES.length];
+        for (int i = 0; i < queues.length; i++) queues[i] = new ConcurrentLinkedQueue<>();
+        return queues;
+    }
+
+    /**
+     * A buffer of the largest class, for reads whose size is not known in advance.
+     */
+    public static ByteBuffer acquire()
+    {
+        return acquire(LARGE);
+    }
+
+    /**
+     * A cleared buffer with a capacity of at least size, up to {@link #LARGE}.
+     */
+    public static ByteBuffer acquire(int size)
+    {
+        int sizeClass = sizeClass(size);
+        Magazine magazine = magazine();
+        magazine.acquired++;
+
+        ByteBuffer buffer = magazine.pop(sizeClass);
+        if (buffer == null) buffer = depots[sizeClass].poll();
+        if (buffer != null) {
+            magazine.hits++;
+            return buffer;
+        }
+
+        magazine.misses++;
+        expungeCollected();
+        int capacity = CLASS_SIZES[sizeClass];
+        if (directBytes.addAndGet(capacity) > MAX_DIRECT_BYTES) {
+            directBytes.addAndGet(-capacity);
+            magazine.heapFallbacks++;
+            return ByteBuffer.allocate(capacity);
+        }
+        buffer = ByteBuffer.allocateDirect(capacity); // Using DirectBuffer for zero-copy
+        references.add(new BufferReference(buffer));
+        return buffer;
+    }
+
+    public static void release(ByteBuffer buffer)
+    {
+        Magazine magazine = magazine();
+        magazine.released++;
+        if (!buffer.isDirect()) return; // Heap fallback, left to the GC
+
+        int sizeClass = sizeClass(buffer.capacity());
+        if (buffer.capacity() != CLASS_SIZES[sizeClass]) return; // Not one of ours
+        buffer.clear();
+        if (!magazine.push(sizeClass, buffer)) {
+            // Magazine full, move half of it to the depot so the next release does not land here again
+            for (int i = 0; i < MAGAZINE_SIZE / 2; i++) depots[sizeClass].offer(magazine.pop(sizeClass));
+            magazine.push(sizeClass, buffer);
+        }
+    }
+
+    /**
+     * Drops every free buffer. Buffers still held by running threads are unaffected and may be
+     * released later as usual.
+     */
+    public static void clear()
+    {
+        synchronized (registry) {
+            for (Magazine magazine : registry) {
+                magazine.retired = true;
+                for (int count : magazine.counts) discarded.addAndGet(count);
+                retiredHits += magazine.hits;
+                retiredMisses += magazine.misses;
+                retiredHeapFallbacks += magazine.heapFallbacks;
+                retiredAcquired += magazine.acquired;
+                retiredReleased += magazine.released;
+            }
+            registry.clear();
+        }
+        for (ConcurrentLinkedQueue<ByteBuffer> depot : depots) {
+            while (depot.poll() != null) discarded.incrementAndGet();
+        }
+    }
+
+    // Counters, summed over all threads without synchronizing with them so they are approximate
+
+    public static long getHits() {
+        synchronized (registry) {
+            long hits = retiredHits;
+            for (Magazine magazine : registry) hits += magazine.hits;
+            return hits;
+        }
+    }
+
+    public static long getMisses() {
+        synchronized (registry) {
+            long misses = retiredMisses;
+            for (Magazine magazine : registry) misses += magazine.misses;
+            return misses;
+        }
+    }
+
+    public static long getHeapFallbacks() {
+        synchronized (registry) {
+            long heapFallbacks = retiredHeapFallbacks;
+            for (Magazine magazine : registry) heapFallbacks += magazine.heapFallbacks;
+            return heapFallbacks;
+        }
+    }
+
+    /**
+     * Buffers acquired and not released yet.
+     */
+    public static long getOutstanding() {
+        synchronized (registry) {
+            long outstanding = retiredAcquired - retiredReleased;
+            for (Magazine magazine : registry) outstanding += magazine.acquired - magazine.released;
+            return outstanding;
+        }
+    }
+
+    /**
+     * Direct buffers garbage collected without being released or dropped by clear().
+     */
+    public static long getLeaked() {
+        expungeCollected();
+        return collected.get() - discarded.get();
+    }
+
+    public static long getDirectBytes() {
+        expungeCollected();
+        return directBytes.get();
+    }
+
+    private static int sizeClass(int size) {
+        for (int i = 0; i < CLASS_SIZES.length - 1; i++) {
+            if (size <= CLASS_SIZES[i]) return i;
+        }
+        return CLASS_SIZES.length - 1;
+    }
+
+    private static Magazine magazine() {
+        Magazine magazine = magazines.get();
+        if (magazine == null || magazine.retired) {
+            magazine = new Magazine();
+            magazines.set(magazine);
+            synchronized (registry) {
+                registry.add(magazine);
+            }
+        }
+        return magazine;
+    }
+
+    private static void expungeCollected() {
+        Reference<? extends ByteBuffer> reference;
+        while ((reference = collectedQueue.poll()) != null) {
+            BufferReference bufferReference = (BufferReference) reference;
+            references.remove(bufferReference);
+            directBytes.addAndGet(-bufferReference.capacity);
+            collected.incrementAndGet();
+        }
+    }
+
+    // Free buffers and counters of one thread, only written by that thread
+    private static final class Magazine {
+        final ByteBuffer[][] buffers = new ByteBuffer[CLASS_SIZES.length][MAGAZINE_SIZE];
+        final int[] counts = new int[CLASS_SIZES.length];
+        volatile boolean retired;
+        long hits, misses, heapFallbacks, acquired, released;
+
+        ByteBuffer pop(int sizeClass) {
+            if (counts[sizeClass] == 0) return null;
+            int index = --counts[sizeClass];
+            ByteBuffer buffer = buffers[sizeClass][index];
+            buffers[sizeClass][index] = null;
+            return buffer;
+        }
+
+        boolean push(int sizeClass, ByteBuffer buffer) {
+            if (counts[sizeClass] == MAGAZINE_SIZE) return false;
+            buffers[sizeClass][counts[sizeClass]++] = buffer;
+            return true;
+        }
+    }
+
+    private static final class BufferReference extends PhantomReference<ByteBuffer> {
+        final int capacity;
+
+        BufferReference(ByteBuffer buffer) {
+            super(buffer, collectedQueue);
+            capacity = buffer.capacity();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.packetcapturing.net;
+
+/**
+ * Capture timestamps in nanoseconds since the epoch. System.nanoTime() is anchored to the wall
+ * clock once, so timestamps keep nanoTime's resolution and never jump when the wall clock is
+ * adjusted; intervals between packets are exact even if the absolute time drifts slightly.
+ */
+public final class CaptureClock {
+    private static final long ANCHOR_WALL_NANOS;
+    private static final long ANCHOR_NANO_TIME;
+
+    static {
+        // Anchor right after the millisecond ticks, so the wall clock's granularity adds no offset
+        long start = System.currentTimeMillis();
+        long wallMillis;
+        long nanoTime;
+        do {
+            nanoTime = System.nanoTime();
+            wallMillis = System.currentTimeMillis();
+        } while (wallMillis == start);
+        ANCHOR_WALL_NANOS = wallMillis * 1000000L;
+        ANCHOR_NANO_TIME = nanoTime;
+    }
+
+    private CaptureClock() {
+    }
+
+    public static long nowNanos() {
+        return ANCHOR_WALL_NANOS + (System.nanoTime() - ANCHOR_NANO_TIME);
+    }
+}
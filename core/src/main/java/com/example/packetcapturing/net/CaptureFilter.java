@@ -0,0 +1,407 @@
+package com.example.packetcapturing.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Capture filter compiled from a small pcap-like expression into a tree of predicates that read
+ * the packet buffer directly, so packets that do not match are rejected before anything is
+ * copied. Examples:
+ *
+ * <pre>
+ * host 93.184.216.34 or host 140.82.112.3
+ * tcp and dst portrange 8000-8999
+ * net 10.0.0.0/8 and not port 53
+ * tcpflags syn and not tcpflags ack
+ * </pre>
+ *
+ * Primitives are tcp, udp, icmp, proto N, [src|dst] host A.B.C.D, [src|dst] net A.B.C.D/len,
+ * [src|dst] port N, [src|dst] portrange N-M and tcpflags fin,syn,rst,psh,ack,urg (all listed
+ * flags set). They combine with and/&amp;&amp;, or/||, not/! and parentheses; and binds tighter
+ * than or. Host and net primitives or'ed together in the same direction are merged into one
+ * lookup, so a list of hosts costs a binary search rather than a comparison per host.
+ */
+public final class CaptureFilter {
+    private static final int SOURCE = 1;
+    private static final int DESTINATION = 2;
+    private static final int EITHER = SOURCE | DESTINATION;
+
+    private final String expression;
+    private final Node root;
+
+    private CaptureFilter(String expression, Node root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+    /**
+     * Compiles an expression. Returns null for a null or blank expression, meaning capture
+     * everything; throws IllegalArgumentException with the offending token for a bad one.
+     */
+    public static CaptureFilter compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) return null;
+        Parser parser = new Parser(expression);
+        Node root = parser.parseOr();
+        if (parser.hasNext()) throw parser.error("Unexpected '" + parser.peek() + "'");
+        return new CaptureFilter(expression.trim(), root);
+    }
+
+    /**
+     * The buffer must hold a valid IPv4 packet starting at index 0, see {@link PacketView#isValid()}.
+     */
+    public boolean matches(ByteBuffer packet) {
+        return root.matches(packet);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private abstract static class Node {
+        abstract boolean matches(ByteBuffer packet);
+    }
+
+    private static final class And extends Node {
+        private final Node[] nodes;
+
+        And(Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        boolean matches(ByteBuffer packet) {
+            for (Node node : nodes) if (!node.matches(packet)) return false;
+            return true;
+        }
+    }
+
+    private static final class Or extends Node {
+        private final Node[] nodes;
+
+        Or(Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        boolean matches(ByteBuffer packet) {
+            for (Node node : nodes) if (node.matches(packet)) return true;
+            return false;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node node;
+
+        Not(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        boolean matches(ByteBuffer packet) {
+            return !node.matches(packet);
+        }
+    }
+
+    private static final class Protocol extends Node {
+        private final int protocol;
+
+        Protocol(int protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        boolean matches(ByteBuffer packet) {
+            return (packet.get(9) & 0xFF) == protocol;
+        }
+    }
+
+    /**
+     * Exact hosts in a sorted array plus networks as parallel prefix/mask arrays.
+     */
+    private static final class Address extends Node {
+        private final int direction;
+        private final int[] hosts;
+        private final int[] prefixes;
+        private final int[] masks;
+
+        Address(int direction, int[] hosts, int[] prefixes, int[] masks) {
+            this.direction = direction;
+            this.hosts = hosts;
+            this.prefixes = prefixes;
+            this.masks = masks;
+        }
+
+        @Override
+        boolean matches(ByteBuffer packet) {
+            return ((direction & SOURCE) != 0 && matches(packet.getInt(12)))
+                    || ((direction & DESTINATION) != 0 && matches(packet.getInt(16)));
+        }
+
+        private boolean matches(int address) {
+            if (hosts.length > 0 && Arrays.binarySearch(hosts, address) >= 0) return true;
+            for (int i = 0; i < prefixes.length; i++) if ((address & masks[i]) == prefixes[i]) return true;
+            return false;
+        }
+
+        Address merge(Address other) {
+            int[] mergedHosts = Arrays.copyOf(hosts, hosts.length + other.hosts.length);
+            System.arraycopy(other.hosts, 0, mergedHosts, hosts.length, other.hosts.length);
+            Arrays.sort(mergedHosts);
+            int[] mergedPrefixes = Arrays.copyOf(prefixes, prefixes.length + other.prefixes.length);
+            System.arraycopy(other.prefixes, 0, mergedPrefixes, prefixes.length, other.prefixes.length);
+            int[] mergedMasks = Arrays.copyOf(masks, masks.length + other.masks.length);
+            System.arraycopy(other.masks, 0, mergedMasks, masks.length, other.masks.length);
+            return new Address(direction, mergedHosts, mergedPrefixes, mergedMasks);
+        }
+    }
+
+    private static final class PortRange extends Node {
+        private final int direction;
+        private final int low;
+        private final int high;
+
+        PortRange(int direction, int low, int high) {
+            this.direction = direction;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        boolean matches(ByteBuffer packet) {
+            int protocol = packet.get(9) & 0xFF;
+            if (protocol != PacketView.PROTOCOL_TCP && protocol != PacketView.PROTOCOL_UDP) return false;
+            int offset = (packet.get(0) & 0x0F) << 2;
+            if ((direction & SOURCE) != 0 && inRange(packet.getShort(offset) & 0xFFFF)) return true;
+            return (direction & DESTINATION) != 0 && inRange(packet.getShort(offset + 2) & 0xFFFF);
+        }
+
+        private boolean inRange(int port) {
+            return port >= low && port <= high;
+        }
+    }
+
+    private static final class TCPFlags extends Node {
+        private final int mask;
+
+        TCPFlags(int mask) {
+            this.mask = mask;
+        }
+
+        @Override
+        boolean matches(ByteBuffer packet) {
+            if ((packet.get(9) & 0xFF) != PacketView.PROTOCOL_TCP) return false;
+            int flags = packet.get(((packet.get(0) & 0x0F) << 2) + 13);
+            return (flags & mask) == mask;
+        }
+    }
+
+    private static final class Parser {
+        private final String expression;
+        private final List<String> tokens = new ArrayList<>();
+        private int next;
+
+        Parser(String expression) {
+            this.expression = expression;
+            StringBuilder token = new StringBuilder();
+            for (int i = 0; i < expression.length(); i++) {
+                char c = expression.charAt(i);
+                if (c == '(' || c == ')' || c == '!' || Character.isWhitespace(c)) {
+                    addToken(token);
+                    if (!Character.isWhitespace(c)) tokens.add(String.valueOf(c));
+                } else {
+                    token.append(c);
+                }
+            }
+            addToken(token);
+        }
+
+        private void addToken(StringBuilder token) {
+            if (token.length() == 0) return;
+            tokens.add(token.toString().toLowerCase(Locale.US));
+            token.setLength(0);
+        }
+
+        boolean hasNext() {
+            return next < tokens.size();
+        }
+
+        String peek() {
+            return hasNext() ? tokens.get(next) : null;
+        }
+
+        private String take() {
+            if (!hasNext()) throw error("Unexpected end of expression");
+            return tokens.get(next++);
+        }
+
+        private boolean accept(String a, String b) {
+            String token = peek();
+            if (!a.equals(token) && !b.equals(token)) return false;
+            next++;
+            return true;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " in capture filter \"" + expression + "\"");
+        }
+
+        Node parseOr() {
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(parseAnd());
+            while (accept("or", "||")) nodes.add(parseAnd());
+            if (nodes.size() == 1) return nodes.get(0);
+
+            // Flatten nested ors and merge address lookups in the same direction
+            List<Node> flat = new ArrayList<>();
+            Address[] addresses = new Address[EITHER + 1];
+            for (Node node : nodes) {
+                for (Node child : node instanceof Or ? ((Or) node).nodes : new Node[]{node}) {
+                    if (child instanceof Address) {
+                        Address address = (Address) child;
+                        Address merged = addresses[address.direction];
+                        addresses[address.direction] = merged == null ? address : merged.merge(address);
+                    } else {
+                        flat.add(child);
+                    }
+                }
+            }
+            for (Address address : addresses) if (address != null) flat.add(0, address);
+            return flat.size() == 1 ? flat.get(0) : new Or(flat.toArray(new Node[0]));
+        }
+
+        private Node parseAnd() {
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(parseNot());
+            while (accept("and", "&&")) nodes.add(parseNot());
+            if (nodes.size() == 1) return nodes.get(0);
+
+            List<Node> flat = new ArrayList<>();
+            for (Node node : nodes) {
+                if (node instanceof And) flat.addAll(Arrays.asList(((And) node).nodes));
+                else flat.add(node);
+            }
+            return new And(flat.toArray(new Node[0]));
+        }
+
+        private Node parseNot() {
+            if (accept("not", "!")) {
+                Node node = parseNot();
+                return node instanceof Not ? ((Not) node).node : new Not(node);
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            String token = take();
+            switch (token) {
+                case "(":
+                    Node node = parseOr();
+                    if (!")".equals(take())) throw error("Missing ')'");
+                    return node;
+                case "tcp":
+                    return new Protocol(PacketView.PROTOCOL_TCP);
+                case "udp":
+                    return new Protocol(PacketView.PROTOCOL_UDP);
+                case "icmp":
+                    return new Protocol(1);
+                case "proto":
+                    return new Protocol(parseNumber(take(), 255));
+                case "tcpflags":
+                    return new TCPFlags(parseFlags(take()));
+                case "src":
+                    return parseQualified(SOURCE, take());
+                case "dst":
+                    return parseQualified(DESTINATION, take());
+                default:
+                    return parseQualified(EITHER, token);
+            }
+        }
+
+        private Node parseQualified(int direction, String keyword) {
+            if (!Arrays.asList("host", "net", "port", "portrange").contains(keyword)) throw error("Unknown primitive '" + keyword + "'");
+            String value = take();
+            switch (keyword) {
+                case "host":
+                    return new Address(direction, new int[]{parseAddress(value)}, new int[0], new int[0]);
+                case "net":
+                    return parseNet(direction, value);
+                case "port":
+                    int port = parseNumber(value, 65535);
+                    return new PortRange(direction, port, port);
+                case "portrange":
+                    int dash = value.indexOf('-');
+                    if (dash < 0) throw error("Bad port range '" + value + "'");
+                    int low = parseNumber(value.substring(0, dash), 65535);
+                    int high = parseNumber(value.substring(dash + 1), 65535);
+                    if (low > high) throw error("Bad port range '" + value + "'");
+                    return new PortRange(direction, low, high);
+                default:
+                    throw error("Unknown primitive '" + keyword + "'");
+            }
+        }
+
+        private Node parseNet(int direction, String value) {
+            int slash = value.indexOf('/');
+            int address = parseAddress(slash < 0 ? value : value.substring(0, slash));
+            int prefixLength = slash < 0 ? 32 : parseNumber(value.substring(slash + 1), 32);
+            if (prefixLength == 32) return new Address(direction, new int[]{address}, new int[0], new int[0]);
+            int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+            return new Address(direction, new int[0], new int[]{address & mask}, new int[]{mask});
+        }
+
+        /**
+         * Dotted quad only, a name would need a DNS lookup on the capture path.
+         */
+        private int parseAddress(String value) {
+            String[] parts = value.split("\\.", -1);
+            if (parts.length != 4) throw error("Bad IPv4 address '" + value + "'");
+            int address = 0;
+            for (String part : parts) address = address << 8 | parseNumber(part, 255);
+            return address;
+        }
+
+        private int parseFlags(String value) {
+            int mask = 0;
+            for (String flag : value.split(",")) {
+                switch (flag) {
+                    case "fin":
+                        mask |= Packet.TCPHeader.FIN;
+                        break;
+                    case "syn":
+                        mask |= Packet.TCPHeader.SYN;
+                        break;
+                    case "rst":
+                        mask |= Packet.TCPHeader.RST;
+                        break;
+                    case "psh":
+                        mask |= Packet.TCPHeader.PSH;
+                        break;
+                    case "ack":
+                        mask |= Packet.TCPHeader.ACK;
+                        break;
+                    case "urg":
+                        mask |= Packet.TCPHeader.URG;
+                        break;
+                    default:
+                        throw error("Unknown TCP flag '" + flag + "'");
+                }
+            }
+            return mask;
+        }
+
+        private int parseNumber(String value, int max) {
+            int number;
+            try {
+                number = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw error("Bad number '" + value + "'");
+            }
+            if (number < 0 || number > max) throw error("Number out of range '" + value + "'");
+            return number;
+        }
+    }
+}
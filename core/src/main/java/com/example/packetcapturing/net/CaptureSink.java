@@ -0,0 +1,22 @@
+package com.example.packetcapturing.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where a capture's bytes end up. The writer hands over the format's file header once, then
+ * batches of whole records, so a sink may start a new file between two batches as long as it
+ * begins with the header again.
+ */
+public interface CaptureSink extends Closeable {
+    /**
+     * Called once before the first batch, the header is copied.
+     */
+    void open(ByteBuffer fileHeader) throws IOException;
+
+    /**
+     * Writes the records between the buffer's position and limit.
+     */
+    void write(ByteBuffer records) throws IOException;
+}
@@ -0,0 +1,58 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.managers.RawPacketManager;
+import com.example.packetcapturing.model.RawPacket;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single place where packets crossing the tunnel are copied for capture. TunnelReader taps
+ * device to network packets and TunnelWriter taps network to device packets just before they
+ * are written, so every synthesized TCP/UDP response is captured as the device sees it.
+ */
+public class CaptureTap {
+    private static final Metrics.Counter filteredPackets = Metrics.counter("capture.filtered");
+    private static final Metrics.Counter droppedPackets = Metrics.counter("capture.queue_dropped");
+
+    private final ConcurrentLinkedQueue<RawPacket> packetQueue;
+    private final SnapLength snapLength;
+    private volatile CaptureFilter filter;
+
+    /**
+     * packetQueue may be null when no capture file is streamed, packets then only go to
+     * RawPacketManager's ring. Packets it refuses, when it is bounded and full, are dropped
+     * from the file and counted.
+     */
+    public CaptureTap(ConcurrentLinkedQueue<RawPacket> packetQueue, SnapLength snapLength) {
+        this.packetQueue = packetQueue;
+        this.snapLength = snapLength;
+    }
+
+    /**
+     * Only packets matching the filter are captured from now on, null captures everything.
+     */
+    public void setFilter(CaptureFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Copies the packet the view is wrapped around, up to the snap length. direction is one of
+     * RawPacket's. The view is owned by the calling thread.
+     */
+    public void capture(PacketView packetView, int direction) {
+        CaptureFilter filter = this.filter;
+        if (filter != null && !filter.matches(packetView.buffer())) {
+            filteredPackets.increment();
+            return;
+        }
+
+        long timestampNanos = CaptureClock.nowNanos();
+        int totalLength = packetView.totalLength();
+        int capturedLength = snapLength.capturedLength(packetView);
+        RawPacketManager.getInstance().addPacket(timestampNanos, packetView.buffer(), capturedLength, totalLength, direction);
+        if (packetQueue == null) return;
+        if (!packetQueue.offer(new RawPacket(timestampNanos, packetView.copy(capturedLength), totalLength, direction))) {
+            droppedPackets.increment();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.packetcapturing.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Internet checksum (RFC 1071) helpers. {@link #sum} adds 64 bits per step using absolute reads,
+ * so it never allocates or moves the buffer position; buffers must be in the default big-endian
+ * order. {@link #adjust} patches an existing checksum after a 16/32-bit field changed (RFC 1624).
+ */
+public final class Checksum {
+
+    private Checksum() {
+    }
+
+    /**
+     * Adds {@code length} bytes starting at {@code offset} to a running, unfolded sum.
+     * An odd trailing byte is padded with zero as the checksum requires.
+     */
+    public static long sum(ByteBuffer buffer, int offset, int length, long sum) {
+        // 32-bit halves of a 64-bit word can be added 2^31 times before the accumulator overflows
+        while (length >= 8) {
+            long word = buffer.getLong(offset);
+            sum += (word >>> 32) + (word & 0xFFFFFFFFL);
+            offset += 8;
+            length -= 8;
+        }
+        if (length >= 4) {
+            sum += buffer.getInt(offset) & 0xFFFFFFFFL;
+            offset += 4;
+            length -= 4;
+        }
+        if (length >= 2) {
+            sum += buffer.getShort(offset) & 0xFFFF;
+            offset += 2;
+            length -= 2;
+        }
+        if (length > 0) sum += (buffer.get(offset) & 0xFF) << 8;
+        return sum;
+    }
+
+    /**
+     * Unfolded sum of the TCP/UDP pseudo-header of the IPv4 packet at the start of {@code buffer}.
+     */
+    public static long pseudoHeaderSum(ByteBuffer buffer, int protocol, int transportLength) {
+        // Source and destination addresses are adjacent at offset 12
+        return sum(buffer, 12, 8, protocol + transportLength);
+    }
+
+    public static int fold(long sum) {
+        while (sum >>> 16 != 0) sum = (sum & 0xFFFF) + (sum >>> 16);
+        return (int) sum;
+    }
+
+    /**
+     * Folds and complements a running sum into the value stored in the header.
+     */
+    public static int finish(long sum) {
+        return ~fold(sum) & 0xFFFF;
+    }
+
+    /**
+     * RFC 1624 eqn. 3: HC' = ~(~HC + ~m + m') for a 16-bit field that changed from m to m'.
+     */
+    public static int adjust(int checksum, int oldValue, int newValue) {
+        long sum = (~checksum & 0xFFFF) + (~oldValue & 0xFFFF) + (newValue & 0xFFFF);
+        return ~fold(sum) & 0xFFFF;
+    }
+
+    /**
+     * Same as {@link #adjust} for a 32-bit field such as a sequence or acknowledgement number.
+     */
+    public static int adjust32(int checksum, long oldValue, long newValue) {
+        long sum = (~checksum & 0xFFFF)
+                + (~(oldValue >>> 16) & 0xFFFF) + (~oldValue & 0xFFFF)
+                + ((newValue >>> 16) & 0xFFFF) + (newValue & 0xFFFF);
+        return ~fold(sum) & 0xFFFF;
+    }
+}
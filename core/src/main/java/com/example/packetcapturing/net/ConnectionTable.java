@@ -0,0 +1,247 @@
+package com.example.packetcapturing.net;
+
+import java.util.Arrays;
+
+/**
+ * LRU map from a packed connection key to a value, used for the TCB and UDP channel caches.
+ * Open addressing with linear probing over preallocated primitive arrays, so get, put, remove
+ * and eviction allocate nothing. Not thread safe.
+ *
+ * The device side address is always the tunnel address, so destination address, destination port
+ * and source port identify a connection; see {@link #key(int, int, int)}.
+ */
+public class ConnectionTable<V> {
+    private static final int EMPTY = -1;
+    // Least recently used entries looked at to pick an eviction victim
+    private static final int EVICTION_SCAN = 8;
+
+    private final int maxSize;
+    private final CleanupCallback<V> callback;
+    private final EvictionRanker<V> ranker;
+
+    // Hash slots holding entry indexes, at least twice maxSize so probe chains stay short
+    private final int[] slots;
+    private final int slotMask;
+
+    // Entries, linked in access order from eldest (head) to most recently used (tail)
+    private final long[] keys;
+    private final Object[] values;
+    private final int[] previous;
+    private final int[] next;
+    private int head = EMPTY;
+    private int tail = EMPTY;
+    private int freeList;
+    private int size;
+
+    public ConnectionTable(int maxSize, CleanupCallback<V> callback) {
+        this(maxSize, callback, null);
+    }
+
+    /**
+     * With a ranker, a full table evicts the lowest ranked of its {@link #EVICTION_SCAN} least
+     * recently used entries instead of always the least recently used one.
+     */
+    public ConnectionTable(int maxSize, CleanupCallback<V> callback, EvictionRanker<V> ranker) {
+        this.maxSize = maxSize;
+        this.callback = callback;
+        this.ranker = ranker;
+
+        int slotCount = Integer.highestOneBit(Math.max(maxSize, 2) * 2 - 1) << 1;
+        slots = new int[slotCount];
+        slotMask = slotCount - 1;
+        Arrays.fill(slots, EMPTY);
+
+        keys = new long[maxSize];
+        values = new Object[maxSize];
+        previous = new int[maxSize];
+        next = new int[maxSize];
+        for (int i = 0; i < maxSize; i++) next[i] = i + 1 < maxSize ? i + 1 : EMPTY;
+        freeList = maxSize > 0 ? 0 : EMPTY;
+    }
+
+    public static long key(int destinationAddress, int destinationPort, int sourcePort) {
+        return ((long) destinationAddress << 32) | ((long) (destinationPort & 0xFFFF) << 16) | (sourcePort & 0xFFFF);
+    }
+
+    /**
+     * Same "ip:destinationPort:sourcePort" form the String keys had, for logging only.
+     */
+    public static String keyToString(long key) {
+        return PacketView.formatAddress((int) (key >>> 32)) + ":" + ((key >>> 16) & 0xFFFF) + ":" + (key & 0xFFFF);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value for the key and marks it most recently used, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = findSlot(key);
+        if (slot == EMPTY) return null;
+
+        int entry = slots[slot];
+        moveToTail(entry);
+        return (V) values[entry];
+    }
+
+    /**
+     * Adds or replaces the value for the key. Adding to a full table evicts an entry through the
+     * cleanup callback first.
+     */
+    public void put(long key, V value) {
+        int slot = findSlot(key);
+        if (slot != EMPTY) {
+            int entry = slots[slot];
+            values[entry] = value;
+            moveToTail(entry);
+            return;
+        }
+
+        if (size == maxSize) evict();
+
+        int entry = freeList;
+        freeList = next[entry];
+        keys[entry] = key;
+        values[entry] = value;
+        linkAtTail(entry);
+        size++;
+
+        slot = hash(key);
+        while (slots[slot] != EMPTY) slot = (slot + 1) & slotMask;
+        slots[slot] = entry;
+    }
+
+    /**
+     * Removes the key without calling the cleanup callback and returns its value, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = findSlot(key);
+        if (slot == EMPTY) return null;
+
+        int entry = slots[slot];
+        V value = (V) values[entry];
+        removeEntry(slot, entry);
+        return value;
+    }
+
+    /**
+     * Removes the key only if it maps to this very value, without calling the cleanup callback.
+     * Returns whether it did.
+     */
+    public boolean remove(long key, V value) {
+        int slot = findSlot(key);
+        if (slot == EMPTY || values[slots[slot]] != value) return false;
+
+        removeEntry(slot, slots[slot]);
+        return true;
+    }
+
+    /**
+     * Removes every entry, passing each one to the cleanup callback.
+     */
+    @SuppressWarnings("unchecked")
+    public void clear() {
+        while (head != EMPTY) {
+            int entry = head;
+            long key = keys[entry];
+            V value = (V) values[entry];
+            removeEntry(findSlot(key), entry);
+            callback.cleanup(key, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evict() {
+        int entry = head;
+        if (ranker != null) {
+            int lowestRank = ranker.rank((V) values[entry]);
+            int candidate = next[entry];
+            for (int i = 1; i < EVICTION_SCAN && candidate != EMPTY && lowestRank > 0; i++) {
+                int rank = ranker.rank((V) values[candidate]);
+                if (rank < lowestRank) {
+                    lowestRank = rank;
+                    entry = candidate;
+                }
+                candidate = next[candidate];
+            }
+        }
+        long key = keys[entry];
+        V value = (V) values[entry];
+        removeEntry(findSlot(key), entry);
+        callback.cleanup(key, value);
+    }
+
+    private void removeEntry(int slot, int entry) {
+        unlink(entry);
+        values[entry] = null;
+        next[entry] = freeList;
+        freeList = entry;
+        size--;
+
+        // Backward shift deletion: pull later entries of the probe chain into the hole, no tombstones
+        int hole = slot;
+        int current = (hole + 1) & slotMask;
+        while (slots[current] != EMPTY) {
+            int home = hash(keys[slots[current]]);
+            if (((current - home) & slotMask) >= ((current - hole) & slotMask)) {
+                slots[hole] = slots[current];
+                hole = current;
+            }
+            current = (current + 1) & slotMask;
+        }
+        slots[hole] = EMPTY;
+    }
+
+    private int findSlot(long key) {
+        int slot = hash(key);
+        while (true) {
+            int entry = slots[slot];
+            if (entry == EMPTY) return EMPTY;
+            if (keys[entry] == key) return slot;
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & slotMask;
+    }
+
+    private void moveToTail(int entry) {
+        if (entry == tail) return;
+        unlink(entry);
+        linkAtTail(entry);
+    }
+
+    private void linkAtTail(int entry) {
+        previous[entry] = tail;
+        next[entry] = EMPTY;
+        if (tail == EMPTY) head = entry;
+        else next[tail] = entry;
+        tail = entry;
+    }
+
+    private void unlink(int entry) {
+        int before = previous[entry];
+        int after = next[entry];
+        if (before == EMPTY) head = after;
+        else next[before] = after;
+        if (after == EMPTY) tail = before;
+        else previous[after] = before;
+    }
+
+    public interface CleanupCallback<V> {
+        void cleanup(long key, V value);
+    }
+
+    public interface EvictionRanker<V> {
+        /**
+         * Lower ranks are evicted first, 0 is evicted without looking further.
+         */
+        int rank(V value);
+    }
+}
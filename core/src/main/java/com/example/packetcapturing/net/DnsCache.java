@@ -0,0 +1,154 @@
+package com.example.packetcapturing.net;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * IPv4 address to host name, learned from the DNS answers UDPInput passes back to the device, so
+ * logs and captures can be labeled without lookups of our own.
+ */
+public class DnsCache {
+    private static final int MAX_ENTRIES = 2048;
+    // Connections usually outlive short TTLs, keep the label at least this long
+    private static final long MIN_TTL_MILLIS = 5 * 60 * 1000;
+    private static final int DNS_HEADER_SIZE = 12;
+    private static final int TYPE_A = 1;
+    private static final int CLASS_IN = 1;
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private static DnsCache INSTANCE = null;
+
+    private final LinkedHashMap<Integer, HostEntry> entries = new LinkedHashMap<Integer, HostEntry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, HostEntry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public static synchronized DnsCache getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new DnsCache();
+
+        return INSTANCE;
+    }
+
+    /**
+     * Host name the address was last resolved from, or null.
+     */
+    public synchronized String lookup(int address) {
+        HostEntry entry = entries.get(address);
+        if (entry == null) return null;
+        if (entry.expiry < System.currentTimeMillis()) {
+            entries.remove(address);
+            return null;
+        }
+        return entry.name;
+    }
+
+    public synchronized void put(int address, String name, long ttlSeconds) {
+        long expiry = System.currentTimeMillis() + Math.max(ttlSeconds * 1000, MIN_TTL_MILLIS);
+        entries.put(address, new HostEntry(name, expiry));
+    }
+
+    /**
+     * Writes the current entries in hosts file format, which Wireshark can load for name resolution.
+     */
+    public void writeHostsFile(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        synchronized (this) {
+            for (Map.Entry<Integer, HostEntry> entry : entries.entrySet()) {
+                sb.append(PacketView.formatAddress(entry.getKey())).append('\t').append(entry.getValue().name).append('\n');
+            }
+        }
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(sb.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Records the A records of a DNS response. Every address is labeled with the queried name,
+     * not the last name of a CNAME chain, since that is the name the app asked for. Malformed
+     * messages are ignored.
+     */
+    public void recordResponse(ByteBuffer buffer, int offset, int length) {
+        int end = offset + length;
+        if (length < DNS_HEADER_SIZE) return;
+        boolean isResponse = (buffer.get(offset + 2) & 0x80) != 0;
+        int rcode = buffer.get(offset + 3) & 0x0F;
+        int questionCount = buffer.getShort(offset + 4) & 0xFFFF;
+        int answerCount = buffer.getShort(offset + 6) & 0xFFFF;
+        if (!isResponse || rcode != 0 || questionCount != 1 || answerCount == 0) return;
+
+        int position = offset + DNS_HEADER_SIZE;
+        StringBuilder name = new StringBuilder();
+        position = readName(buffer, offset, position, end, name);
+        if (position < 0 || position + 4 > end) return;
+        position += 4; // QTYPE, QCLASS
+
+        for (int i = 0; i < answerCount; i++) {
+            position = skipName(buffer, position, end);
+            if (position < 0 || position + 10 > end) return;
+            int type = buffer.getShort(position) & 0xFFFF;
+            int dnsClass = buffer.getShort(position + 2) & 0xFFFF;
+            long ttl = buffer.getInt(position + 4) & 0xFFFFFFFFL;
+            int dataLength = buffer.getShort(position + 8) & 0xFFFF;
+            position += 10;
+            if (position + dataLength > end) return;
+
+            if (type == TYPE_A && dnsClass == CLASS_IN && dataLength == 4)
+                put(buffer.getInt(position), name.toString(), ttl);
+            position += dataLength;
+        }
+    }
+
+    // Returns the position after the name where it is stored, or -1 if it is malformed
+    private static int readName(ByteBuffer buffer, int messageOffset, int position, int end, StringBuilder name) {
+        int next = -1;
+        int jumps = 0;
+        while (position < end) {
+            int labelLength = buffer.get(position) & 0xFF;
+            if (labelLength == 0) return next < 0 ? position + 1 : next;
+
+            if ((labelLength & 0xC0) == 0xC0) {
+                if (position + 1 >= end || ++jumps > 16) return -1;
+                if (next < 0) next = position + 2;
+                position = messageOffset + (((labelLength & 0x3F) << 8) | (buffer.get(position + 1) & 0xFF));
+                continue;
+            }
+
+            if (position + 1 + labelLength > end || name.length() + labelLength + 1 > MAX_NAME_LENGTH) return -1;
+            if (name.length() > 0) name.append('.');
+            for (int i = 1; i <= labelLength; i++) name.append((char) (buffer.get(position + i) & 0xFF));
+            position += 1 + labelLength;
+        }
+        return -1;
+    }
+
+    private static int skipName(ByteBuffer buffer, int position, int end) {
+        while (position < end) {
+            int labelLength = buffer.get(position) & 0xFF;
+            if (labelLength == 0) return position + 1;
+            if ((labelLength & 0xC0) == 0xC0) return position + 2;
+            position += 1 + labelLength;
+        }
+        return -1;
+    }
+
+    private static class HostEntry {
+        final String name;
+        final long expiry;
+
+        HostEntry(String name, long expiry) {
+            this.name = name;
+            this.expiry = expiry;
+        }
+    }
+}
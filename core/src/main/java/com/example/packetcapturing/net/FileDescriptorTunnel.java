@@ -0,0 +1,29 @@
+package com.example.packetcapturing.net;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A TUN descriptor, such as the one VpnService.Builder.establish() returns. The descriptor itself
+ * is owned by the caller.
+ */
+public class FileDescriptorTunnel implements Tunnel {
+    private final FileDescriptor fileDescriptor;
+
+    public FileDescriptorTunnel(FileDescriptor fileDescriptor) {
+        this.fileDescriptor = fileDescriptor;
+    }
+
+    @Override
+    public ReadableByteChannel input() {
+        return new FileInputStream(fileDescriptor).getChannel();
+    }
+
+    @Override
+    public WritableByteChannel output() {
+        return new FileOutputStream(fileDescriptor).getChannel();
+    }
+}
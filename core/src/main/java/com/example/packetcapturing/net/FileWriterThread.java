@@ -0,0 +1,119 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.pcaputils.PcapFileHeader;
+import com.example.packetcapturing.pcaputils.PcapRecord;
+import com.example.packetcapturing.pcaputils.PcapngWriter;
+import com.example.packetcapturing.platform.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams captured packets from {@link CaptureTap} into a {@link CaptureSink} while the capture
+ * runs, pcapng if the capture file's name ends in .pcapng and classic PCAP otherwise.
+ * Records are batched in one reusable direct buffer that is flushed when it fills up or when
+ * the oldest unflushed record is {@link #FLUSH_INTERVAL_MILLIS} old, whichever comes first.
+ */
+public class FileWriterThread implements Runnable {
+    private static final String TAG = FileWriterThread.class.getSimpleName();
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    // Large enough for a flush threshold's worth of records plus one maximum-size record in
+    // either format, pcapng's having the larger overhead
+    private static final int BATCH_BUFFER_SIZE = 2 * FLUSH_THRESHOLD + PcapngWriter.ENHANCED_PACKET_OVERHEAD;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final WakeupQueue<RawPacket> packetQueue;
+    private final File file;
+    private final SnapLength snapLength;
+    private final CaptureSink sink;
+    private final boolean pcapng;
+
+    public FileWriterThread(WakeupQueue<RawPacket> packetQueue, File file, SnapLength snapLength) {
+        this(packetQueue, file, snapLength, new RotatingFileSink(file, false, 0, 0, 0));
+    }
+
+    /**
+     * file names the capture, picking its format and where the .hosts file goes, while sink
+     * decides where the bytes are written.
+     */
+    public FileWriterThread(WakeupQueue<RawPacket> packetQueue, File file, SnapLength snapLength, CaptureSink sink) {
+        this.packetQueue = packetQueue;
+        this.file = file;
+        this.snapLength = snapLength;
+        this.sink = sink;
+        pcapng = file.getName().endsWith(".pcapng");
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started: " + file);
+        ByteBuffer batchBuffer = ByteBuffer.allocateDirect(BATCH_BUFFER_SIZE);
+        try {
+            if (pcapng) {
+                PcapngWriter.writeSectionHeader(batchBuffer, "Packet Capturing");
+                PcapngWriter.writeInterfaceDescription(batchBuffer, "tun0", snapLength.maxCapturedLength());
+            } else {
+                batchBuffer.put(new PcapFileHeader(Math.min(PcapRecord.LINK_LAYER_HEADER_SIZE + snapLength.maxCapturedLength(), 65535)).getBytes());
+            }
+            batchBuffer.flip();
+            sink.open(batchBuffer);
+            batchBuffer.clear();
+
+            long flushDeadline = 0;
+            try {
+                while (!Thread.interrupted()) {
+                    long waitMillis = batchBuffer.position() == 0 ? FLUSH_INTERVAL_MILLIS : flushDeadline - System.currentTimeMillis();
+                    RawPacket rawPacket = packetQueue.poll(Math.max(waitMillis, 0), TimeUnit.MILLISECONDS);
+                    if (rawPacket != null) {
+                        if (batchBuffer.position() == 0) flushDeadline = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+                        append(batchBuffer, rawPacket);
+                    }
+
+                    if (batchBuffer.position() >= FLUSH_THRESHOLD
+                            || (batchBuffer.position() > 0 && System.currentTimeMillis() >= flushDeadline)) {
+                        flush(batchBuffer);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stopping, write out whatever is still queued
+                RawPacket rawPacket;
+                while ((rawPacket = packetQueue.poll()) != null) {
+                    append(batchBuffer, rawPacket);
+                    if (batchBuffer.position() >= FLUSH_THRESHOLD) flush(batchBuffer);
+                }
+            }
+            flush(batchBuffer);
+            DnsCache.getInstance().writeHostsFile(new File(file.getPath() + ".hosts"));
+            Log.i(TAG, "Stopping");
+        } catch (ClosedByInterruptException e) {
+            Log.i(TAG, "Stopping, interrupted while writing");
+        } catch (IOException e) {
+            Log.e(TAG, "Capture file error: " + file, e);
+        } finally {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Capture file error: " + file, e);
+            }
+        }
+    }
+
+    private void append(ByteBuffer batchBuffer, RawPacket rawPacket) {
+        if (pcapng) {
+            PcapngWriter.writeEnhancedPacket(batchBuffer, rawPacket.getTimestampNanos(), rawPacket.getData(), rawPacket.getOriginalLength(), rawPacket.getDirection());
+        } else {
+            PcapRecord.writeRecordHeader(batchBuffer, rawPacket.getTimestampNanos(), rawPacket.getData().length, rawPacket.getOriginalLength());
+            batchBuffer.put(rawPacket.getData());
+        }
+    }
+
+    private void flush(ByteBuffer batchBuffer) throws IOException {
+        batchBuffer.flip();
+        if (batchBuffer.hasRemaining()) sink.write(batchBuffer);
+        batchBuffer.clear();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.packetcapturing.net;
+
+/**
+ * Accounting for one proxied TCP connection or UDP flow, kept by its TCB or UDPFlow and updated
+ * in place by the threads forwarding it. "Device" counts packets the app sent through the tunnel
+ * and their payload bytes, "network" the packets carrying upstream data back to it (TCP data
+ * segments, UDP datagrams) and their payload bytes.
+ *
+ * The device counters are written by the thread reading the tunnel side, the network ones by
+ * the thread reading the upstream channel, and either may finish the flow and hand it to
+ * {@link FlowStatsWriter}. No lock orders those writes before the writer's reads, so the fields
+ * are volatile. A packet forwarded while the flow is being finished may be missing from its line.
+ */
+public final class FlowStats {
+    public final int protocol;
+    // The app's side is the source
+    public final int sourceAddress;
+    public final int sourcePort;
+    public final int destinationAddress;
+    public final int destinationPort;
+    // CaptureClock time of the flow's first packet, the other times are relative to it
+    public final long startNanos;
+
+    // Each counter has a single writer thread, so the increments are not lost
+    public volatile int devicePackets;
+    public volatile long deviceBytes;
+    public volatile int networkPackets;
+    public volatile long networkBytes;
+    // Until the upstream connection was established (TCP only) and until the first byte came
+    // back from upstream, -1 if it never happened
+    public volatile long connectNanos = -1;
+    public volatile long firstByteNanos = -1;
+    public volatile long durationNanos = -1;
+
+    public FlowStats(int protocol, int sourceAddress, int sourcePort, int destinationAddress, int destinationPort) {
+        this.protocol = protocol;
+        this.sourceAddress = sourceAddress;
+        this.sourcePort = sourcePort;
+        this.destinationAddress = destinationAddress;
+        this.destinationPort = destinationPort;
+        startNanos = CaptureClock.nowNanos();
+    }
+
+    public void addDevice(long bytes) {
+        devicePackets++;
+        deviceBytes += bytes;
+    }
+
+    public void addNetwork(int packets, long bytes) {
+        if (firstByteNanos < 0 && bytes > 0) firstByteNanos = CaptureClock.nowNanos() - startNanos;
+        networkPackets += packets;
+        networkBytes += bytes;
+    }
+
+    public void connected() {
+        if (connectNanos < 0) connectNanos = CaptureClock.nowNanos() - startNanos;
+    }
+
+    /**
+     * Ends the flow, returning false if it had already ended. Either of a connection's threads
+     * may close it.
+     */
+    public synchronized boolean finish() {
+        if (durationNanos >= 0) return false;
+        durationNanos = CaptureClock.nowNanos() - startNanos;
+        return true;
+    }
+}
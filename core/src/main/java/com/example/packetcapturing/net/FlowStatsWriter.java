@@ -0,0 +1,91 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes finished flows to a CSV file, one line each, as they end. Lines are buffered and
+ * flushed once the oldest unwritten one is {@link #FLUSH_INTERVAL_MILLIS} old. Flows still open
+ * when the engine stops are written if they are closed before this thread drains its queue.
+ */
+public class FlowStatsWriter implements Runnable {
+    private static final String TAG = FlowStatsWriter.class.getSimpleName();
+    private static final String HEADER = "start,protocol,source,destination,host,device_packets,device_bytes,"
+            + "network_packets,network_bytes,connect_us,first_byte_us,duration_ms\n";
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final WakeupQueue<FlowStats> flowQueue;
+    private final File file;
+    private final StringBuilder line = new StringBuilder();
+
+    public FlowStatsWriter(WakeupQueue<FlowStats> flowQueue, File file) {
+        this.flowQueue = flowQueue;
+        this.file = file;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started: " + file);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(file), 64 * 1024);
+            writer.write(HEADER);
+            boolean unflushed = false;
+            long flushDeadline = 0;
+            try {
+                while (!Thread.interrupted()) {
+                    long waitMillis = unflushed ? flushDeadline - System.currentTimeMillis() : FLUSH_INTERVAL_MILLIS;
+                    FlowStats stats = flowQueue.poll(Math.max(waitMillis, 0), TimeUnit.MILLISECONDS);
+                    if (stats != null) {
+                        if (!unflushed) flushDeadline = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+                        unflushed = true;
+                        writer.write(format(stats));
+                    }
+                    if (unflushed && System.currentTimeMillis() >= flushDeadline) {
+                        writer.flush();
+                        unflushed = false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stopping, write out whatever is still queued
+                FlowStats stats;
+                while ((stats = flowQueue.poll()) != null) writer.write(format(stats));
+            }
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.e(TAG, "Flow stats file error: " + file, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private String format(FlowStats stats) {
+        String host = DnsCache.getInstance().lookup(stats.destinationAddress);
+        line.setLength(0);
+        line.append(BigDecimal.valueOf(stats.startNanos / 1000, 6).toPlainString()).append(',')
+                .append(stats.protocol == PacketView.PROTOCOL_TCP ? "tcp" : stats.protocol == PacketView.PROTOCOL_UDP ? "udp" : String.valueOf(stats.protocol)).append(',')
+                .append(PacketView.formatAddress(stats.sourceAddress)).append(':').append(stats.sourcePort).append(',')
+                .append(PacketView.formatAddress(stats.destinationAddress)).append(':').append(stats.destinationPort).append(',')
+                .append(host != null ? host : "").append(',')
+                .append(stats.devicePackets).append(',').append(stats.deviceBytes).append(',')
+                .append(stats.networkPackets).append(',').append(stats.networkBytes).append(',');
+        if (stats.connectNanos >= 0) line.append(stats.connectNanos / 1000);
+        line.append(',');
+        if (stats.firstByteNanos >= 0) line.append(stats.firstByteNanos / 1000);
+        line.append(',').append(stats.durationNanos / 1000000).append('\n');
+        return line.toString();
+    }
+}
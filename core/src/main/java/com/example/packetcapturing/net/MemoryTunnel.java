@@ -0,0 +1,116 @@
+package com.example.packetcapturing.net;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory stand-in for the TUN device, for running the proxy on a plain JVM. A test plays the
+ * device with {@link #send(ByteBuffer)} and {@link #receive(long, TimeUnit)}; packets keep their
+ * boundaries like on a real TUN descriptor, which a pipe would not. Reads block, so it needs the
+ * TunnelReader/TunnelWriter threads rather than the polling loop.
+ */
+public class MemoryTunnel implements Tunnel {
+    private final BlockingQueue<ByteBuffer> toProxy;
+    private final BlockingQueue<ByteBuffer> toDevice;
+
+    /**
+     * capacity is the number of packets each direction holds before the sender blocks.
+     */
+    public MemoryTunnel(int capacity) {
+        toProxy = new LinkedBlockingQueue<>(capacity);
+        toDevice = new LinkedBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Sends a copy of the packet between the buffer's position and limit to the proxy.
+     */
+    public void send(ByteBuffer packet) throws InterruptedException {
+        toProxy.put(copy(packet));
+    }
+
+    /**
+     * Next packet the proxy wrote to the device, or null if none arrived in time.
+     */
+    public ByteBuffer receive(long timeout, TimeUnit unit) throws InterruptedException {
+        return toDevice.poll(timeout, unit);
+    }
+
+    @Override
+    public ReadableByteChannel input() {
+        return new ReadableByteChannel() {
+            private volatile boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) throws ClosedChannelException {
+                if (!open) throw new ClosedChannelException();
+                ByteBuffer packet;
+                try {
+                    packet = toProxy.take();
+                } catch (InterruptedException e) {
+                    open = false;
+                    Thread.currentThread().interrupt();
+                    throw new ClosedByInterruptException();
+                }
+                // Like a TUN read, whatever does not fit is lost
+                if (packet.remaining() > dst.remaining()) packet.limit(packet.position() + dst.remaining());
+                int length = packet.remaining();
+                dst.put(packet);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    @Override
+    public WritableByteChannel output() {
+        return new WritableByteChannel() {
+            private volatile boolean open = true;
+
+            @Override
+            public int write(ByteBuffer src) throws ClosedChannelException {
+                if (!open) throw new ClosedChannelException();
+                int length = src.remaining();
+                try {
+                    toDevice.put(copy(src));
+                } catch (InterruptedException e) {
+                    open = false;
+                    Thread.currentThread().interrupt();
+                    throw new ClosedByInterruptException();
+                }
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    private static ByteBuffer copy(ByteBuffer packet) {
+        ByteBuffer copy = ByteBuffer.allocate(packet.remaining());
+        copy.put(packet);
+        copy.flip();
+        return copy;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.packetcapturing.net;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named counters, latency histograms and gauges of the packet pipeline, written out periodically
+ * by {@link MetricsReporter}. Counters and histograms are striped by thread, so the hot path does
+ * one uncontended atomic add; stages look them up once and keep the reference.
+ */
+public final class Metrics {
+    private static final int STRIPES = 8; // Power of two
+    // Longs between stripes, keeps threads on separate cache lines
+    private static final int STRIPE_PADDING = 8;
+    // Packets read from the TUN device carry their read time in their last bytes, past the MTU
+    private static final int STAMP_SIZE = 8;
+
+    private static final Map<String, Counter> counters = new LinkedHashMap<>();
+    private static final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private static final Map<String, Gauge> gauges = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public static synchronized Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers a value sampled at each snapshot, replacing any gauge of the same name.
+     */
+    public static synchronized void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public static synchronized void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    static synchronized Map<String, Counter> counters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    static synchronized Map<String, Histogram> histograms() {
+        return new LinkedHashMap<>(histograms);
+    }
+
+    static synchronized Map<String, Gauge> gauges() {
+        return new LinkedHashMap<>(gauges);
+    }
+
+    /**
+     * Records the current time in a buffer read from the TUN device.
+     */
+    public static void stamp(ByteBuffer buffer) {
+        if (buffer.capacity() < Packet.MTU + STAMP_SIZE) return;
+        // Absolute puts are bounded by the limit, which ends at the packet
+        int limit = buffer.limit();
+        buffer.limit(buffer.capacity());
+        buffer.putLong(buffer.capacity() - STAMP_SIZE, System.nanoTime());
+        buffer.limit(limit);
+    }
+
+    /**
+     * Time since {@link #stamp(ByteBuffer)}, or -1 if the buffer is too small to carry a stamp.
+     */
+    public static long nanosSinceStamp(ByteBuffer buffer) {
+        if (buffer.capacity() < Packet.MTU + STAMP_SIZE) return -1;
+        int limit = buffer.limit();
+        buffer.limit(buffer.capacity());
+        long stamp = buffer.getLong(buffer.capacity() - STAMP_SIZE);
+        buffer.limit(limit);
+        return System.nanoTime() - stamp;
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 61) & (STRIPES - 1);
+    }
+
+    public static final class Counter {
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIPE_PADDING);
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long delta) {
+            cells.getAndAdd(stripe() * STRIPE_PADDING, delta);
+        }
+
+        public long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) sum += cells.get(i * STRIPE_PADDING);
+            return sum;
+        }
+    }
+
+    /**
+     * Counts values in power of two buckets: bucket 0 holds 0, bucket i values below 2^i.
+     */
+    public static final class Histogram {
+        static final int BUCKETS = 32;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * BUCKETS);
+
+        public void record(long value) {
+            int bucket = value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+            cells.getAndIncrement(stripe() * BUCKETS + bucket);
+        }
+
+        /**
+         * Counts per bucket, summed over the stripes.
+         */
+        public long[] snapshot() {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < cells.length(); i++) buckets[i % BUCKETS] += cells.get(i);
+            return buckets;
+        }
+
+        /**
+         * Exclusive upper bound of the bucket holding the given fraction of the counted values.
+         */
+        public static long percentile(long[] buckets, double fraction) {
+            long total = 0;
+            for (long count : buckets) total += count;
+            if (total == 0) return 0;
+
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target) return 1L << i;
+            }
+            return 1L << (buckets.length - 1);
+        }
+    }
+
+    public interface Gauge {
+        long value();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Appends a snapshot of {@link Metrics} to a text file every interval, and once more when
+ * stopped. Counters are written with their rate over the interval, histograms as count and
+ * percentile bucket bounds.
+ */
+public class MetricsReporter implements Runnable {
+    private static final String TAG = MetricsReporter.class.getSimpleName();
+
+    private final File file;
+    private final long intervalMillis;
+    private final Map<String, Long> previousCounts = new HashMap<>();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private long previousTime;
+
+    public MetricsReporter(File file, long intervalMillis) {
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started: " + file);
+        previousTime = System.currentTimeMillis();
+        try {
+            while (!Thread.interrupted()) {
+                Thread.sleep(intervalMillis);
+                report();
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Stopping");
+        }
+        report();
+    }
+
+    private void report() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(now - previousTime, 1) / 1000.0;
+        previousTime = now;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("# ").append(dateFormat.format(new Date(now))).append('\n');
+        for (Map.Entry<String, Metrics.Counter> entry : Metrics.counters().entrySet()) {
+            long count = entry.getValue().sum();
+            Long previous = previousCounts.put(entry.getKey(), count);
+            long delta = count - (previous != null ? previous : 0);
+            sb.append(entry.getKey()).append(' ').append(count)
+                    .append(String.format(Locale.US, " %.1f/s", delta / seconds)).append('\n');
+        }
+        for (Map.Entry<String, Metrics.Gauge> entry : Metrics.gauges().entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(entry.getValue().value()).append('\n');
+        }
+        for (Map.Entry<String, Metrics.Histogram> entry : Metrics.histograms().entrySet()) {
+            long[] buckets = entry.getValue().snapshot();
+            long count = 0;
+            for (long bucketCount : buckets) count += bucketCount;
+            sb.append(entry.getKey()).append(" count=").append(count)
+                    .append(" p50<").append(Metrics.Histogram.percentile(buckets, 0.5))
+                    .append(" p90<").append(Metrics.Histogram.percentile(buckets, 0.9))
+                    .append(" p99<").append(Metrics.Histogram.percentile(buckets, 0.99))
+                    .append(" max<").append(Metrics.Histogram.percentile(buckets, 1.0)).append('\n');
+        }
+
+        try {
+            Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(sb.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Metrics file error: " + file, e);
+        }
+    }
+}
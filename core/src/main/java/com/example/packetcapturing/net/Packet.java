@@ -1,9 +1,6 @@
 package com.example.packetcapturing.net;
 
-import androidx.annotation.NonNull;
-
 import com.example.packetcapturing.managers.SnifferLogManager;
-import com.example.packetcapturing.model.LogModel;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -13,14 +10,24 @@ public class Packet implements Cloneable{
     public static final int IP4_HEADER_SIZE = 20;
     public static final int TCP_HEADER_SIZE = 20;
     public static final int UDP_HEADER_SIZE = 8;
+    // MTU of the VPN interface, the MSS advertised to the device is derived from it
+    public static final int MTU = 1500;
+    public static final int TCP_MSS = MTU - IP4_HEADER_SIZE - TCP_HEADER_SIZE;
+    // Window advertised to the device, scaled by this shift when it negotiates window scaling
+    public static final int RECEIVE_WINDOW = 65535;
+    public static final int RECEIVE_WINDOW_SCALE = 2;
 
     public IP4Header ip4Header;
     public TCPHeader tcpHeader;
     public UDPHeader udpHeader;
     public ByteBuffer backingBuffer;
 
+    private static volatile boolean udpChecksumEnabled = false;
+
     private boolean isTCP;
     private boolean isUDP;
+    private boolean ip4ChecksumReusable;
+    private boolean tcpChecksumReusable;
 
     public Packet(ByteBuffer buffer) throws UnknownHostException {
         this.ip4Header = new IP4Header(buffer);
@@ -34,7 +41,6 @@ public class Packet implements Cloneable{
         this.backingBuffer = buffer;
     }
 
-    @NonNull
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("Packet{");
@@ -43,17 +49,17 @@ public class Packet implements Cloneable{
         else if (isUDP) sb.append(", udpHeader=").append(udpHeader);
         sb.append(", payloadSize=").append(backingBuffer.limit() - backingBuffer.position());
         sb.append('}');
-        SnifferLogManager.getInstance().addLog(getLog());
         return sb.toString();
     }
 
-    public LogModel getLog() {
-        if (isTCP) {
-            return new LogModel(4,"TCP", ip4Header.sourceAddress.toString(), tcpHeader.sourcePort, backingBuffer.array(), "...", System.currentTimeMillis());
-        }
-        else {
-            return new LogModel(4,"UDP", ip4Header.sourceAddress.toString(), udpHeader.sourcePort, backingBuffer.array(), "...", System.currentTimeMillis());
-        }
+    /**
+     * Adds this packet to the connection log. Responses are built from the reference packet, so
+     * after an update its source is the remote end. Must be called before the buffer is queued,
+     * it is released once written to the device.
+     */
+    public void log() {
+        SnifferLogManager.getInstance().add(isTCP ? PacketView.PROTOCOL_TCP : PacketView.PROTOCOL_UDP,
+                backingBuffer.getInt(12), isTCP ? tcpHeader.sourcePort : udpHeader.sourcePort);
     }
 
     public boolean isTCP() {
@@ -85,6 +91,16 @@ public class Packet implements Cloneable{
         fillHeader(buffer);
         backingBuffer = buffer;
 
+        // A pure control segment differs from the previous one only in flags/seq/ack,
+        // so its checksum can be patched instead of summed again
+        boolean incremental = tcpChecksumReusable && payloadSize == 0;
+        int checksum = tcpHeader.checksum;
+        if (incremental) {
+            checksum = Checksum.adjust(checksum, tcpHeader.flags & 0xFF, flags & 0xFF);
+            checksum = Checksum.adjust32(checksum, tcpHeader.sequenceNumber, sequenceNum);
+            checksum = Checksum.adjust32(checksum, tcpHeader.acknowledgementNumber, ackNum);
+        }
+
         tcpHeader.flags = flags;
         backingBuffer.put(IP4_HEADER_SIZE + 13, flags);
 
@@ -99,13 +115,49 @@ public class Packet implements Cloneable{
         tcpHeader.dataOffsetAndReserved = dataOffset;
         backingBuffer.put(IP4_HEADER_SIZE + 12, dataOffset);
 
-        updateTCPChecksum(payloadSize);
-
         int ip4TotalLength = IP4_HEADER_SIZE + TCP_HEADER_SIZE + payloadSize;
         backingBuffer.putShort(2, (short) ip4TotalLength);
-        ip4Header.totalLength = ip4TotalLength;
 
-        updateIP4Checksum();
+        if (incremental) {
+            tcpHeader.checksum = checksum;
+            backingBuffer.putShort(IP4_HEADER_SIZE + 16, (short) checksum);
+        } else {
+            updateTCPChecksum(TCP_HEADER_SIZE + payloadSize);
+        }
+        tcpChecksumReusable = payloadSize == 0;
+
+        updateIP4Checksum(ip4TotalLength);
+    }
+
+    /**
+     * Builds the SYN-ACK for a new connection, advertising {@link #TCP_MSS} and, if windowScale
+     * is not negative, the window scale option with that shift. Later segments carry no options.
+     */
+    public void updateSYNACKBuffer(ByteBuffer buffer, long sequenceNum, long ackNum, int windowScale) {
+        buffer.position(0);
+        tcpHeader.flags = (byte) (TCPHeader.SYN | TCPHeader.ACK);
+        tcpHeader.sequenceNumber = sequenceNum;
+        tcpHeader.acknowledgementNumber = ackNum;
+        tcpHeader.window = RECEIVE_WINDOW; // Never scaled in a SYN
+        int tcpHeaderLength = TCP_HEADER_SIZE + (windowScale >= 0 ? 8 : 4);
+        tcpHeader.dataOffsetAndReserved = (byte) (tcpHeaderLength << 2);
+        fillHeader(buffer);
+        backingBuffer = buffer;
+
+        buffer.put((byte) TCPHeader.OPTION_MSS).put((byte) 4).putShort((short) TCP_MSS);
+        if (windowScale >= 0) {
+            buffer.put((byte) TCPHeader.OPTION_NOP);
+            buffer.put((byte) TCPHeader.OPTION_WINDOW_SCALE).put((byte) 3).put((byte) windowScale);
+        }
+
+        int ip4TotalLength = IP4_HEADER_SIZE + tcpHeaderLength;
+        backingBuffer.putShort(2, (short) ip4TotalLength);
+
+        updateTCPChecksum(tcpHeaderLength);
+        // The stored checksum covers the options, the next segment needs a full sum
+        tcpChecksumReusable = false;
+
+        updateIP4Checksum(ip4TotalLength);
     }
 
     public void updateUDPBuffer(ByteBuffer buffer, int payloadSize) {
@@ -117,67 +169,67 @@ public class Packet implements Cloneable{
         backingBuffer.putShort(IP4_HEADER_SIZE + 4, (short) udpTotalLength);
         udpHeader.length = udpTotalLength;
 
-        // Disable UDP checksum validation
-        backingBuffer.putShort(IP4_HEADER_SIZE + 6, (short) 0);
-        udpHeader.checksum = 0;
-
         int ip4TotalLength = IP4_HEADER_SIZE + udpTotalLength;
         backingBuffer.putShort(2, (short) ip4TotalLength);
-        ip4Header.totalLength = ip4TotalLength;
 
-        updateIP4Checksum();
-    }
+        if (udpChecksumEnabled) {
+            updateUDPChecksum(udpTotalLength);
+        } else {
+            // Disable UDP checksum validation
+            backingBuffer.putShort(IP4_HEADER_SIZE + 6, (short) 0);
+            udpHeader.checksum = 0;
+        }
 
-    private void updateIP4Checksum() {
-        ByteBuffer buffer = backingBuffer.duplicate();
-        buffer.position(0);
+        updateIP4Checksum(ip4TotalLength);
+    }
 
-        // Clear previous checksum
-        buffer.putShort(10, (short) 0);
+    /**
+     * Responses to the device carry a real UDP checksum instead of 0 ("not computed").
+     */
+    public static void setUDPChecksumEnabled(boolean enabled) {
+        udpChecksumEnabled = enabled;
+    }
 
-        int ipLength = ip4Header.headerLength;
-        int sum = 0;
-        while (ipLength > 0) {
-            sum += BitUtils.getUnsignedShort(buffer.getShort());
-            ipLength -= 2;
+    private void updateIP4Checksum(int ip4TotalLength) {
+        int checksum;
+        if (ip4ChecksumReusable) {
+            // Only the total length changes between two responses built from this packet
+            checksum = Checksum.adjust(ip4Header.headerChecksum, ip4Header.totalLength, ip4TotalLength);
+        } else {
+            // Clear previous checksum
+            backingBuffer.putShort(10, (short) 0);
+            checksum = Checksum.finish(Checksum.sum(backingBuffer, 0, IP4_HEADER_SIZE, 0));
+            ip4ChecksumReusable = true;
         }
-        while (sum >> 16 > 0) sum = (sum & 0xFFFF) + (sum >> 16);
-
-        sum = ~sum;
-        ip4Header.headerChecksum = sum;
-        backingBuffer.putShort(10, (short) sum);
+        ip4Header.totalLength = ip4TotalLength;
+        ip4Header.headerChecksum = checksum;
+        backingBuffer.putShort(10, (short) checksum);
     }
 
-    private void updateTCPChecksum(int payloadSize) {
-        int sum = 0;
-        int tcpLength = TCP_HEADER_SIZE + payloadSize;
-
-        // Calculate pseudo-header checksum
-        ByteBuffer buffer = ByteBuffer.wrap(ip4Header.sourceAddress.getAddress());
-        sum = BitUtils.getUnsignedShort(buffer.getShort()) + BitUtils.getUnsignedShort(buffer.getShort());
+    private void updateTCPChecksum(int tcpLength) {
+        // Clear previous checksum
+        backingBuffer.putShort(IP4_HEADER_SIZE + 16, (short) 0);
 
-        buffer = ByteBuffer.wrap(ip4Header.destinationAddress.getAddress());
-        sum += BitUtils.getUnsignedShort(buffer.getShort()) + BitUtils.getUnsignedShort(buffer.getShort());
+        long sum = Checksum.pseudoHeaderSum(backingBuffer, IP4Header.TransportProtocol.TCP.getNumber(), tcpLength);
+        sum = Checksum.sum(backingBuffer, IP4_HEADER_SIZE, tcpLength, sum);
 
-        sum += IP4Header.TransportProtocol.TCP.getNumber() + tcpLength;
+        int checksum = Checksum.finish(sum);
+        tcpHeader.checksum = checksum;
+        backingBuffer.putShort(IP4_HEADER_SIZE + 16, (short) checksum);
+    }
 
-        buffer = backingBuffer.duplicate();
+    private void updateUDPChecksum(int udpLength) {
         // Clear previous checksum
-        buffer.putShort(IP4_HEADER_SIZE + 16, (short) 0);
-
-        // Calculate TCP segment checksum
-        buffer.position(IP4_HEADER_SIZE);
-        while (tcpLength > 1) {
-            sum += BitUtils.getUnsignedShort(buffer.getShort());
-            tcpLength -= 2;
-        }
-        if (tcpLength > 0) sum += BitUtils.getUnsignedByte(buffer.get()) << 8;
+        backingBuffer.putShort(IP4_HEADER_SIZE + 6, (short) 0);
 
-        while (sum >> 16 > 0) sum = (sum & 0xFFFF) + (sum >> 16);
+        long sum = Checksum.pseudoHeaderSum(backingBuffer, IP4Header.TransportProtocol.UDP.getNumber(), udpLength);
+        sum = Checksum.sum(backingBuffer, IP4_HEADER_SIZE, udpLength, sum);
 
-        sum = ~sum;
-        tcpHeader.checksum = sum;
-        backingBuffer.putShort(IP4_HEADER_SIZE + 16, (short) sum);
+        // 0 means "no checksum" for UDP, a computed 0 is sent as all ones
+        int checksum = Checksum.finish(sum);
+        if (checksum == 0) checksum = 0xFFFF;
+        udpHeader.checksum = checksum;
+        backingBuffer.putShort(IP4_HEADER_SIZE + 6, (short) checksum);
     }
 
     private void fillHeader(ByteBuffer buffer) {
@@ -321,6 +373,14 @@ public class Packet implements Cloneable{
         public static final int ACK = 0x10;
         public static final int URG = 0x20;
 
+        public static final int OPTION_END = 0;
+        public static final int OPTION_NOP = 1;
+        public static final int OPTION_MSS = 2;
+        public static final int OPTION_WINDOW_SCALE = 3;
+        // RFC 9293: assumed when the SYN carries no MSS option
+        public static final int DEFAULT_MSS = 536;
+        private static final int MAX_WINDOW_SCALE = 14;
+
         public int sourcePort;
         public int destinationPort;
 
@@ -359,6 +419,43 @@ public class Packet implements Cloneable{
             }
         }
 
+        /**
+         * MSS option of a SYN, or {@link #DEFAULT_MSS} if there is none.
+         */
+        public int getMSS() {
+            int i = findOption(OPTION_MSS, 4);
+            if (i < 0) return DEFAULT_MSS;
+            return ((optionsAndPadding[i + 2] & 0xFF) << 8) | (optionsAndPadding[i + 3] & 0xFF);
+        }
+
+        /**
+         * Window scale shift of a SYN, or -1 if the sender does not support window scaling.
+         */
+        public int getWindowScale() {
+            int i = findOption(OPTION_WINDOW_SCALE, 3);
+            if (i < 0) return -1;
+            return Math.min(optionsAndPadding[i + 2] & 0xFF, MAX_WINDOW_SCALE);
+        }
+
+        private int findOption(int kind, int length) {
+            if (optionsAndPadding == null) return -1;
+            int i = 0;
+            while (i < optionsAndPadding.length) {
+                int optionKind = optionsAndPadding[i] & 0xFF;
+                if (optionKind == OPTION_END) break;
+                if (optionKind == OPTION_NOP) {
+                    i++;
+                    continue;
+                }
+                if (i + 1 >= optionsAndPadding.length) break;
+                int optionLength = optionsAndPadding[i + 1] & 0xFF;
+                if (optionLength < 2 || i + optionLength > optionsAndPadding.length) break;
+                if (optionKind == kind && optionLength == length) return i;
+                i += optionLength;
+            }
+            return -1;
+        }
+
         public boolean isFIN() {
             return (flags & FIN) == FIN;
         }
@@ -513,7 +610,6 @@ public class Packet implements Cloneable{
         }
     }
 
-    @NonNull
     @Override
     protected Object clone() throws CloneNotSupportedException {
         return super.clone();
@@ -0,0 +1,155 @@
+package com.example.packetcapturing.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over a raw IPv4 packet in a pooled buffer. Fields are read on demand from their fixed
+ * offsets and addresses are plain ints, so one instance per thread can be re-wrapped around every
+ * packet without allocating. Unlike {@link Packet}, it never moves the buffer position.
+ */
+public final class PacketView {
+    public static final int PROTOCOL_TCP = 6;
+    public static final int PROTOCOL_UDP = 17;
+
+    private ByteBuffer buffer;
+
+    public PacketView wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        return this;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * True if the buffer holds a complete IPv4 packet whose TCP/UDP header, if any, is in bounds.
+     */
+    public boolean isValid() {
+        int limit = buffer.limit();
+        if (limit < Packet.IP4_HEADER_SIZE || version() != 4) return false;
+        int ip4HeaderLength = ip4HeaderLength();
+        int totalLength = totalLength();
+        if (ip4HeaderLength < Packet.IP4_HEADER_SIZE || totalLength > limit || totalLength < ip4HeaderLength) return false;
+        if (isTCP()) {
+            if (totalLength < ip4HeaderLength + Packet.TCP_HEADER_SIZE) return false;
+            int tcpHeaderLength = tcpHeaderLength();
+            return tcpHeaderLength >= Packet.TCP_HEADER_SIZE && ip4HeaderLength + tcpHeaderLength <= totalLength;
+        }
+        if (isUDP()) return totalLength >= ip4HeaderLength + Packet.UDP_HEADER_SIZE;
+        return true;
+    }
+
+    // IPv4
+
+    public int version() {
+        return (buffer.get(0) & 0xFF) >>> 4;
+    }
+
+    public int ip4HeaderLength() {
+        return (buffer.get(0) & 0x0F) << 2;
+    }
+
+    public int totalLength() {
+        return buffer.getShort(2) & 0xFFFF;
+    }
+
+    public int protocol() {
+        return buffer.get(9) & 0xFF;
+    }
+
+    public boolean isTCP() {
+        return protocol() == PROTOCOL_TCP;
+    }
+
+    public boolean isUDP() {
+        return protocol() == PROTOCOL_UDP;
+    }
+
+    public int sourceAddress() {
+        return buffer.getInt(12);
+    }
+
+    public int destinationAddress() {
+        return buffer.getInt(16);
+    }
+
+    // TCP and UDP
+
+    public int sourcePort() {
+        return buffer.getShort(ip4HeaderLength()) & 0xFFFF;
+    }
+
+    public int destinationPort() {
+        return buffer.getShort(ip4HeaderLength() + 2) & 0xFFFF;
+    }
+
+    public int transportHeaderLength() {
+        if (isTCP()) return tcpHeaderLength();
+        if (isUDP()) return Packet.UDP_HEADER_SIZE;
+        return 0;
+    }
+
+    public int payloadOffset() {
+        return ip4HeaderLength() + transportHeaderLength();
+    }
+
+    public int payloadSize() {
+        return totalLength() - payloadOffset();
+    }
+
+    // TCP
+
+    public long sequenceNumber() {
+        return buffer.getInt(ip4HeaderLength() + 4) & 0xFFFFFFFFL;
+    }
+
+    public long acknowledgementNumber() {
+        return buffer.getInt(ip4HeaderLength() + 8) & 0xFFFFFFFFL;
+    }
+
+    public int tcpHeaderLength() {
+        return (buffer.get(ip4HeaderLength() + 12) & 0xF0) >>> 2;
+    }
+
+    public byte flags() {
+        return buffer.get(ip4HeaderLength() + 13);
+    }
+
+    public int window() {
+        return buffer.getShort(ip4HeaderLength() + 14) & 0xFFFF;
+    }
+
+    public boolean isFIN() {
+        return (flags() & Packet.TCPHeader.FIN) == Packet.TCPHeader.FIN;
+    }
+
+    public boolean isSYN() {
+        return (flags() & Packet.TCPHeader.SYN) == Packet.TCPHeader.SYN;
+    }
+
+    public boolean isRST() {
+        return (flags() & Packet.TCPHeader.RST) == Packet.TCPHeader.RST;
+    }
+
+    public boolean isACK() {
+        return (flags() & Packet.TCPHeader.ACK) == Packet.TCPHeader.ACK;
+    }
+
+    // Copy for the capture path
+
+    /**
+     * The first length bytes of the packet, from the start of the IP header.
+     */
+    public byte[] copy(int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(0);
+        source.get(bytes, 0, length);
+        return bytes;
+    }
+
+    public static String formatAddress(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.managers.RawPacketManager;
+import com.example.packetcapturing.managers.SnifferLogManager;
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.platform.Log;
+import com.example.packetcapturing.platform.SocketProtector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The whole proxy: tunnel threads, the TCP engine, UDP input/output, capture streaming and
+ * metrics reporting, wired together over their queues. The platform only provides the tunnel
+ * and the {@link SocketProtector}, so the same engine runs in the VpnService and on a plain JVM.
+ */
+public class ProxyEngine implements Closeable {
+    private static final String TAG = ProxyEngine.class.getSimpleName();
+    private static final long METRICS_INTERVAL_MILLIS = 10 * 1000;
+    // Packets waiting for FileWriterThread, beyond this a slow file drops them instead of the heap filling up
+    private static final int CAPTURE_QUEUE_CAPACITY = 16 * 1024;
+
+    private final SocketProtector socketProtector;
+    private final WakeupQueue<ByteBuffer> deviceToNetworkUDPQueue = new WakeupQueue<>();
+    private final WakeupQueue<ByteBuffer> networkToDeviceQueue = new WakeupQueue<>();
+    private final Selector udpSelector;
+    private final TCPEngine tcpEngine;
+    private final List<String> gaugeNames = new ArrayList<>();
+    private ExecutorService executorService;
+    private CaptureTap captureTap;
+    private CaptureFilter captureFilter;
+    private SnapLength snapLength = SnapLength.FULL;
+    private boolean compressCapture;
+    private long maxCaptureFileBytes;
+    private long maxCaptureFileMillis;
+    private int maxCaptureFiles;
+
+    /**
+     * See {@link TCPEngine} for the shard count and memory budget.
+     */
+    public ProxyEngine(SocketProtector socketProtector, int tcpShardCount, long tcpMemoryBudgetBytes) throws IOException {
+        this.socketProtector = socketProtector;
+        udpSelector = Selector.open();
+        try {
+            tcpEngine = new TCPEngine(tcpShardCount, tcpMemoryBudgetBytes, networkToDeviceQueue, socketProtector);
+        } catch (IOException e) {
+            udpSelector.close();
+            throw e;
+        }
+    }
+
+    public TCPEngine tcpEngine() {
+        return tcpEngine;
+    }
+
+    /**
+     * Restricts capture to packets matching the filter, before or after start. Null captures
+     * everything.
+     */
+    public void setCaptureFilter(CaptureFilter captureFilter) {
+        this.captureFilter = captureFilter;
+        if (captureTap != null) captureTap.setFilter(captureFilter);
+        Log.i(TAG, "Capture filter: " + (captureFilter != null ? captureFilter : "none"));
+    }
+
+    /**
+     * How much of each packet is captured, from the ring to the capture file's snaplen. It can
+     * only be set before start.
+     */
+    public void setSnapLength(SnapLength snapLength) {
+        if (executorService != null) throw new IllegalStateException("Already started");
+        this.snapLength = snapLength;
+        Log.i(TAG, "Snap length: " + snapLength);
+    }
+
+    /**
+     * gzip compresses the capture file and rotates it by size or age, keeping the last
+     * maxFiles, see {@link RotatingFileSink}. 0 disables a limit. It can only be set before start.
+     */
+    public void setCaptureRotation(boolean compress, long maxFileBytes, long maxFileMillis, int maxFiles) {
+        if (executorService != null) throw new IllegalStateException("Already started");
+        compressCapture = compress;
+        maxCaptureFileBytes = maxFileBytes;
+        maxCaptureFileMillis = maxFileMillis;
+        maxCaptureFiles = maxFiles;
+        Log.i(TAG, "Capture rotation: compress " + compress + ", " + maxFileBytes + " bytes, "
+                + maxFileMillis + " ms, " + maxFiles + " files");
+    }
+
+    public boolean isStarted() {
+        return executorService != null;
+    }
+
+    /**
+     * Starts every thread. A blocking tunnel gets a TunnelReader and a TunnelWriter, otherwise
+     * one TunnelPoller serves both directions. With a capture file, captured packets are
+     * streamed to it, and metrics and the stats of every finished flow (.flows.csv) are
+     * written next to it; null only keeps packets in RawPacketManager's ring.
+     */
+    public void start(Tunnel tunnel, boolean blockingTunnel, File captureFile) {
+        if (executorService != null) throw new IllegalStateException("Already started");
+        WakeupQueue<RawPacket> packetQueue = captureFile != null ? new WakeupQueue<RawPacket>(CAPTURE_QUEUE_CAPACITY) : null;
+        WakeupQueue<FlowStats> finishedFlows = captureFile != null ? new WakeupQueue<FlowStats>() : null;
+        captureTap = new CaptureTap(packetQueue, snapLength);
+        captureTap.setFilter(captureFilter);
+
+        executorService = Executors.newCachedThreadPool();
+        executorService.submit(new UDPInput(networkToDeviceQueue, udpSelector));
+        executorService.submit(new UDPOutput(deviceToNetworkUDPQueue, udpSelector, socketProtector, finishedFlows));
+        tcpEngine.start(executorService, finishedFlows);
+        if (blockingTunnel) {
+            executorService.submit(new TunnelReader(tunnel.input(), deviceToNetworkUDPQueue, tcpEngine, captureTap));
+            executorService.submit(new TunnelWriter(tunnel.output(), networkToDeviceQueue, captureTap));
+        } else {
+            executorService.submit(new TunnelPoller(tunnel, deviceToNetworkUDPQueue, tcpEngine, networkToDeviceQueue, captureTap));
+        }
+
+        registerGauges(packetQueue);
+        if (captureFile != null) {
+            CaptureSink sink = new RotatingFileSink(captureFile, compressCapture, maxCaptureFileBytes, maxCaptureFileMillis, maxCaptureFiles);
+            executorService.submit(new FileWriterThread(packetQueue, captureFile, snapLength, sink));
+            executorService.submit(new FlowStatsWriter(finishedFlows, new File(captureFile.getPath() + ".flows.csv")));
+            executorService.submit(new MetricsReporter(new File(captureFile.getPath() + ".metrics"), METRICS_INTERVAL_MILLIS));
+        }
+        Log.i(TAG, "Started");
+    }
+
+    /**
+     * Stops every thread and releases the selectors. The tunnel channels are closed by the
+     * threads using them, the tunnel itself belongs to the caller.
+     */
+    @Override
+    public void close() {
+        if (executorService != null) executorService.shutdownNow();
+        for (String name : gaugeNames) Metrics.removeGauge(name);
+        gaugeNames.clear();
+        ByteBufferPool.clear();
+        closeResources(udpSelector, tcpEngine);
+    }
+
+    private void registerGauges(final WakeupQueue<RawPacket> packetQueue) {
+        // Queue sizes walk the queues, fine at the reporting interval
+        addGauge("queue.device_to_network_tcp", tcpEngine::queuedPackets);
+        addGauge("queue.device_to_network_udp", deviceToNetworkUDPQueue::size);
+        addGauge("queue.network_to_device", networkToDeviceQueue::size);
+        if (packetQueue != null) addGauge("queue.capture", packetQueue::size);
+        addGauge("tcp.connections", tcpEngine::connectionCount);
+        addGauge("pool.hits", ByteBufferPool::getHits);
+        addGauge("pool.misses", ByteBufferPool::getMisses);
+        addGauge("pool.heap_fallbacks", ByteBufferPool::getHeapFallbacks);
+        addGauge("pool.outstanding", ByteBufferPool::getOutstanding);
+        addGauge("pool.direct_bytes", ByteBufferPool::getDirectBytes);
+        addGauge("pool.leaked", ByteBufferPool::getLeaked);
+        addGauge("capture.ring_dropped", () -> RawPacketManager.getInstance().getDroppedPackets());
+        addGauge("log.dropped", () -> SnifferLogManager.getInstance().getDropped());
+    }
+
+    private void addGauge(String name, Metrics.Gauge gauge) {
+        Metrics.gauge(name, gauge);
+        gaugeNames.add(name);
+    }
+
+    private static void closeResources(Closeable... resources) {
+        for (Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.packetcapturing.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Segments a connection received from the device ahead of the next expected sequence number,
+ * sorted by sequence number. Payloads are copied into pooled buffers, so the packet buffer can be
+ * released as usual. Sequence numbers are compared modulo 2^32.
+ */
+public class ReassemblyBuffer {
+    private static final int MAX_SEGMENTS = 64;
+
+    private final long[] sequenceNumbers = new long[MAX_SEGMENTS];
+    private final ByteBuffer[] segments = new ByteBuffer[MAX_SEGMENTS];
+    private int count;
+
+    /**
+     * Negative if sequence number a comes before b, 0 if equal, positive if after.
+     */
+    public static int compare(long a, long b) {
+        return (int) (a - b);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Holds a copy of the payload between the buffer's position and limit. Returns false if it
+     * was not kept, because the same data is already held or the buffer is full; the device
+     * will retransmit it.
+     */
+    public boolean add(long sequenceNumber, ByteBuffer payload) {
+        int i = 0;
+        while (i < count && compare(sequenceNumbers[i], sequenceNumber) < 0) i++;
+        if (i < count && sequenceNumbers[i] == sequenceNumber && segments[i].remaining() >= payload.remaining())
+            return false; // Retransmission of a held segment
+        if (count == MAX_SEGMENTS) return false;
+
+        ByteBuffer copy = ByteBufferPool.acquire(payload.remaining());
+        copy.put(payload);
+        copy.flip();
+
+        System.arraycopy(sequenceNumbers, i, sequenceNumbers, i + 1, count - i);
+        System.arraycopy(segments, i, segments, i + 1, count - i);
+        sequenceNumbers[i] = sequenceNumber;
+        segments[i] = copy;
+        count++;
+        return true;
+    }
+
+    /**
+     * Removes and returns the held data that starts at the expected sequence number, trimmed of
+     * anything before it, or null if there is a gap. Data entirely before it is dropped. The
+     * caller releases the returned buffer to ByteBufferPool.
+     */
+    public ByteBuffer poll(long expectedSequenceNumber) {
+        while (count > 0 && compare(sequenceNumbers[0], expectedSequenceNumber) <= 0) {
+            long sequenceNumber = sequenceNumbers[0];
+            ByteBuffer segment = segments[0];
+            removeFirst();
+
+            int overlap = compare(expectedSequenceNumber, sequenceNumber);
+            if (overlap < segment.remaining()) {
+                segment.position(segment.position() + overlap);
+                return segment;
+            }
+            ByteBufferPool.release(segment);
+        }
+        return null;
+    }
+
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            ByteBufferPool.release(segments[i]);
+            segments[i] = null;
+        }
+        count = 0;
+    }
+
+    private void removeFirst() {
+        count--;
+        System.arraycopy(sequenceNumbers, 1, sequenceNumbers, 0, count);
+        System.arraycopy(segments, 1, segments, 0, count);
+        segments[count] = null;
+    }
+}
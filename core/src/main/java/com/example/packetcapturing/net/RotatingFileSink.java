@@ -0,0 +1,167 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Capture files, optionally gzip compressed and rotated like tcpdump's -C, -G and -W: a new file
+ * is started once the current one reaches maxFileBytes on disk or is maxFileMillis old, and only
+ * the last maxFiles are kept. A limit of 0 disables it; with no size or time limit there is a
+ * single file named exactly as given, otherwise files are numbered, Capture.pcapng becoming
+ * Capture_0001.pcapng, Capture_0002.pcapng and so on. Compressed files get a .gz suffix, which
+ * Wireshark reads directly.
+ *
+ * Limits are checked between batches, so a file can overshoot by one batch. Each file is a
+ * complete gzip stream once closed; the one being written loses what the compressor still
+ * buffers if the process dies.
+ */
+public class RotatingFileSink implements CaptureSink {
+    private static final String TAG = RotatingFileSink.class.getSimpleName();
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final boolean compress;
+    private final long maxFileBytes;
+    private final long maxFileMillis;
+    private final int maxFiles;
+    private final ArrayDeque<File> files = new ArrayDeque<>();
+    private byte[] fileHeader;
+    private byte[] copyBuffer;
+    private FileOutputStream fileStream;
+    private CountingOutputStream countingStream;
+    private GZIPOutputStream gzipStream;
+    private long fileStartMillis;
+    private boolean fileHasRecords;
+    private int fileIndex;
+
+    public RotatingFileSink(File file, boolean compress, long maxFileBytes, long maxFileMillis, int maxFiles) {
+        this.file = file;
+        this.compress = compress;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileMillis = maxFileMillis;
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public void open(ByteBuffer fileHeader) throws IOException {
+        this.fileHeader = new byte[fileHeader.remaining()];
+        fileHeader.duplicate().get(this.fileHeader);
+        startFile();
+    }
+
+    @Override
+    public void write(ByteBuffer records) throws IOException {
+        if (fileStream == null) throw new IOException("Not open");
+        // A file holding just the header is never rotated, so quiet periods add no empty files
+        if (fileHasRecords && ((maxFileBytes > 0 && fileBytes() >= maxFileBytes)
+                || (maxFileMillis > 0 && System.currentTimeMillis() - fileStartMillis >= maxFileMillis))) {
+            closeFile();
+            startFile();
+        }
+        fileHasRecords = true;
+
+        if (gzipStream == null) {
+            FileChannel channel = fileStream.getChannel();
+            while (records.hasRemaining()) channel.write(records);
+            return;
+        }
+        // The compressor takes arrays, copy the batch over in chunks
+        if (copyBuffer == null) copyBuffer = new byte[COPY_BUFFER_SIZE];
+        while (records.hasRemaining()) {
+            int length = Math.min(records.remaining(), copyBuffer.length);
+            records.get(copyBuffer, 0, length);
+            gzipStream.write(copyBuffer, 0, length);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeFile();
+    }
+
+    private void startFile() throws IOException {
+        File next = nextFile();
+        fileStream = new FileOutputStream(next);
+        if (compress) {
+            countingStream = new CountingOutputStream(fileStream);
+            gzipStream = new GZIPOutputStream(countingStream, COPY_BUFFER_SIZE) {
+                {
+                    // Capture runs for days on a phone, favor CPU over ratio
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+            gzipStream.write(fileHeader);
+        } else {
+            fileStream.write(fileHeader);
+        }
+        fileStartMillis = System.currentTimeMillis();
+        fileHasRecords = false;
+
+        files.addLast(next);
+        while (maxFiles > 0 && files.size() > maxFiles) {
+            File oldest = files.removeFirst();
+            if (!oldest.delete()) Log.w(TAG, "Could not delete " + oldest);
+        }
+        Log.i(TAG, "Writing " + next);
+    }
+
+    private File nextFile() {
+        String name = file.getName();
+        if (maxFileBytes > 0 || maxFileMillis > 0) {
+            int dot = name.indexOf('.');
+            String index = String.format(Locale.US, "_%04d", ++fileIndex);
+            name = dot > 0 ? name.substring(0, dot) + index + name.substring(dot) : name + index;
+        }
+        return new File(file.getParentFile(), compress ? name + ".gz" : name);
+    }
+
+    /**
+     * Bytes of the current file on disk, compressed ones lag by what the compressor buffers.
+     */
+    private long fileBytes() throws IOException {
+        return countingStream != null ? countingStream.count : fileStream.getChannel().position();
+    }
+
+    private void closeFile() throws IOException {
+        if (fileStream == null) return;
+        try {
+            if (gzipStream != null) gzipStream.close(); // Finishes the gzip stream and closes the file
+            else fileStream.close();
+        } finally {
+            fileStream = null;
+            countingStream = null;
+            gzipStream = null;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.packetcapturing.net;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How much of each packet is captured: IP and TCP/UDP headers are always kept in full, followed
+ * by at most a payload limit that can be set globally, per protocol and per port. A port limit
+ * applies when either port matches and wins over the protocol one. Immutable, parsed from specs
+ * like:
+ *
+ * <pre>
+ * 0                       headers only
+ * 64, udp=512             64 payload bytes, 512 for UDP
+ * 0, port 53=512, tcp=96  headers only, DNS in full, 96 bytes of TCP payload
+ * </pre>
+ */
+public final class SnapLength {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    public static final SnapLength FULL = new SnapLength(UNLIMITED, UNLIMITED, UNLIMITED, new int[0], new int[0]);
+    private static final int MAX_HEADERS_LENGTH = 60 + 60; // IPv4 and TCP headers with all options
+
+    private final int defaultLimit;
+    private final int tcpLimit;
+    private final int udpLimit;
+    private final int[] ports;
+    private final int[] portLimits;
+
+    private SnapLength(int defaultLimit, int tcpLimit, int udpLimit, int[] ports, int[] portLimits) {
+        this.defaultLimit = defaultLimit;
+        this.tcpLimit = tcpLimit;
+        this.udpLimit = udpLimit;
+        this.ports = ports;
+        this.portLimits = portLimits;
+    }
+
+    /**
+     * Parses a comma separated list of a default payload limit and protocol=N / port P=N
+     * overrides, see the class comment. Null, blank or "full" capture whole packets.
+     */
+    public static SnapLength parse(String spec) {
+        if (spec == null || spec.trim().isEmpty() || spec.trim().equalsIgnoreCase("full")) return FULL;
+        int defaultLimit = UNLIMITED;
+        int tcpLimit = -1;
+        int udpLimit = -1;
+        int[] ports = new int[0];
+        int[] portLimits = new int[0];
+        for (String entry : spec.toLowerCase(Locale.US).split(",")) {
+            String[] parts = entry.split("=", -1);
+            if (parts.length == 1) {
+                defaultLimit = parseNumber(spec, parts[0], UNLIMITED);
+                continue;
+            }
+            if (parts.length != 2) throw error(spec, "Bad entry '" + entry.trim() + "'");
+
+            String key = parts[0].trim();
+            int limit = parseNumber(spec, parts[1], UNLIMITED);
+            if (key.equals("tcp")) {
+                tcpLimit = limit;
+            } else if (key.equals("udp")) {
+                udpLimit = limit;
+            } else if (key.startsWith("port")) {
+                ports = Arrays.copyOf(ports, ports.length + 1);
+                portLimits = Arrays.copyOf(portLimits, portLimits.length + 1);
+                ports[ports.length - 1] = parseNumber(spec, key.substring(4), 65535);
+                portLimits[portLimits.length - 1] = limit;
+            } else {
+                throw error(spec, "Unknown key '" + key + "'");
+            }
+        }
+        return new SnapLength(defaultLimit, tcpLimit < 0 ? defaultLimit : tcpLimit, udpLimit < 0 ? defaultLimit : udpLimit, ports, portLimits);
+    }
+
+    /**
+     * Bytes of the packet the view is wrapped around to capture, from the start of the IP header.
+     */
+    public int capturedLength(PacketView packetView) {
+        int totalLength = packetView.totalLength();
+        if (this == FULL) return totalLength;
+
+        int limit;
+        if (packetView.isTCP()) limit = portLimit(packetView, tcpLimit);
+        else if (packetView.isUDP()) limit = portLimit(packetView, udpLimit);
+        else limit = defaultLimit;
+
+        int payloadOffset = packetView.payloadOffset();
+        return totalLength - payloadOffset <= limit ? totalLength : payloadOffset + limit;
+    }
+
+    private int portLimit(PacketView packetView, int protocolLimit) {
+        if (ports.length == 0) return protocolLimit;
+        int sourcePort = packetView.sourcePort();
+        int destinationPort = packetView.destinationPort();
+        for (int i = 0; i < ports.length; i++) {
+            if (ports[i] == destinationPort || ports[i] == sourcePort) return portLimits[i];
+        }
+        return protocolLimit;
+    }
+
+    /**
+     * Upper bound of {@link #capturedLength(PacketView)}, for the snaplen of a capture file.
+     */
+    public int maxCapturedLength() {
+        int limit = Math.max(defaultLimit, Math.max(tcpLimit, udpLimit));
+        for (int portLimit : portLimits) limit = Math.max(limit, portLimit);
+        return (int) Math.min((long) MAX_HEADERS_LENGTH + limit, 65535);
+    }
+
+    private static int parseNumber(String spec, String value, int max) {
+        int number;
+        try {
+            number = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw error(spec, "Bad number '" + value.trim() + "'");
+        }
+        if (number < 0 || number > max) throw error(spec, "Number out of range '" + value.trim() + "'");
+        return number;
+    }
+
+    private static IllegalArgumentException error(String spec, String message) {
+        return new IllegalArgumentException(message + " in snap length \"" + spec + "\"");
+    }
+
+    @Override
+    public String toString() {
+        if (this == FULL) return "full";
+        StringBuilder builder = new StringBuilder().append(defaultLimit).append(", tcp=").append(tcpLimit).append(", udp=").append(udpLimit);
+        for (int i = 0; i < ports.length; i++) builder.append(", port ").append(ports[i]).append('=').append(portLimits[i]);
+        return builder.toString();
+    }
+}
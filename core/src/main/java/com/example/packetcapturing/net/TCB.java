@@ -0,0 +1,91 @@
+package com.example.packetcapturing.net;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+public class TCB extends TimingWheel.Entry {
+    // Idle timeouts per state, see idleTimeoutMillis()
+    private static final long HANDSHAKE_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long ESTABLISHED_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final long HALF_CLOSED_TIMEOUT_MILLIS = 60 * 1000;
+
+    public long key;
+    public long mySequenceNum, theirSequenceNum;
+    public long myAcknowledgementNum, theirAcknowledgementNum;
+    public TCBStatus status;
+    public final Packet referencePacket;
+    public SocketChannel channel;
+    public boolean waitingForNetworkData;
+    public SelectionKey selectionKey;
+    // Largest segment the device accepts, and its window scale shift or -1 if it has none
+    public int mss = Packet.TCPHeader.DEFAULT_MSS;
+    public int windowScale = -1;
+
+    // Flow control towards the device: upstream reads stop while the device window or the
+    // per-connection budget is used up, and resume from TCPOutput when ACKs open it again
+    public static final int MAX_IN_FLIGHT = 256 * 1024;
+    public long deviceWindow;
+    public boolean readPaused;
+
+    // Segments the device sent ahead of myAcknowledgementNum, allocated on first use
+    public ReassemblyBuffer reassemblyBuffer;
+
+    public FlowStats stats;
+
+    public TCB(long key, long mySequenceNum, long theirSequenceNum, long myAcknowledgementNum, long theirAcknowledgementNum, SocketChannel channel, Packet referencePacket) {
+        this.key = key;
+
+        this.mySequenceNum = mySequenceNum;
+        this.theirSequenceNum = theirSequenceNum;
+        this.myAcknowledgementNum = myAcknowledgementNum;
+        this.theirAcknowledgementNum = theirAcknowledgementNum;
+
+        this.channel = channel;
+        this.referencePacket = referencePacket;
+    }
+
+    public void updateDeviceWindow(int window) {
+        deviceWindow = (long) window << Math.max(windowScale, 0);
+    }
+
+    public long idleTimeoutMillis() {
+        switch (status) {
+            case ESTABLISHED:
+                return ESTABLISHED_TIMEOUT_MILLIS;
+            case CLOSE_WAIT:
+            case LAST_ACK:
+                return HALF_CLOSED_TIMEOUT_MILLIS;
+            default:
+                return HANDSHAKE_TIMEOUT_MILLIS;
+        }
+    }
+
+    /**
+     * Bytes that may still be sent to the device before it acknowledges more.
+     */
+    public long sendAllowance() {
+        long inFlight = Math.max(0, (int) (mySequenceNum - theirAcknowledgementNum));
+        return Math.min(deviceWindow, MAX_IN_FLIGHT) - inFlight;
+    }
+
+    @Override
+    public String toString() {
+        return ConnectionTable.keyToString(key);
+    }
+
+    void closeChannel() {
+        closed = true;
+        if (reassemblyBuffer != null) reassemblyBuffer.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    // TCP has more states, but we need only these
+    public enum TCBStatus {
+        SYN_SENT, SYN_RECEIVED, ESTABLISHED, CLOSE_WAIT, LAST_ACK,
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+
+/**
+ * Connections owned by one TCP shard, shared by its TCPOutput and TCPInput threads. Its capacity
+ * comes from a memory budget; when full, closed and half-closed connections are evicted before
+ * handshakes, and those before established ones.
+ *
+ * That preference only applies among the few least recently used connections ConnectionTable
+ * scans for a victim, so a stale half-closed connection just outside them is kept while an older
+ * established one goes. Ranking the whole table would read the status of every
+ * connection on each eviction, exactly when a flood of new connections fills it; connections
+ * outside the scan are still reclaimed by their idle timeouts, 30 s for handshakes and 60 s once
+ * half-closed.
+ */
+public class TCBTable {
+    private static final String TAG = TCBTable.class.getSimpleName();
+    // Rough heap cost of one connection: TCB, reference packet, socket channel and selection key
+    public static final int BYTES_PER_CONNECTION = 2048;
+
+    private final ConnectionTable<TCB> tcbCache;
+    private final long[] evictionsByStatus = new long[TCB.TCBStatus.values().length];
+    private boolean closingAll;
+    private WakeupQueue<FlowStats> finishedFlows;
+
+    public TCBTable(long memoryBudgetBytes) {
+        int capacity = (int) Math.max(memoryBudgetBytes / BYTES_PER_CONNECTION, 1);
+        tcbCache = new ConnectionTable<>(capacity, new ConnectionTable.CleanupCallback<TCB>() {
+            @Override
+            public void cleanup(long key, TCB tcb) {
+                if (!closingAll) {
+                    evictionsByStatus[tcb.status.ordinal()]++;
+                    Log.w(TAG, "Evicting " + tcb + " " + tcb.status);
+                }
+                tcb.closeChannel();
+                finish(tcb);
+            }
+        }, new ConnectionTable.EvictionRanker<TCB>() {
+            @Override
+            public int rank(TCB tcb) {
+                if (tcb.closed) return 0;
+                switch (tcb.status) {
+                    case CLOSE_WAIT:
+                    case LAST_ACK:
+                        return 1;
+                    case ESTABLISHED:
+                        return 3;
+                    default:
+                        return 2;
+                }
+            }
+        });
+    }
+
+    public synchronized TCB getTCB(long key) {
+        return tcbCache.get(key);
+    }
+
+    public synchronized void putTCB(long key, TCB tcb) {
+        tcbCache.put(key, tcb);
+    }
+
+    /**
+     * Where the stats of closed connections go, null to drop them. Set before the shard starts.
+     */
+    public void setFinishedFlows(WakeupQueue<FlowStats> finishedFlows) {
+        this.finishedFlows = finishedFlows;
+    }
+
+    public void closeTCB(TCB tcb) {
+        tcb.closeChannel();
+        finish(tcb);
+        synchronized (this) {
+            // A late close of an evicted or expired connection must not drop a newer one on the same key
+            tcbCache.remove(tcb.key, tcb);
+        }
+    }
+
+    private void finish(TCB tcb) {
+        if (finishedFlows != null && tcb.stats.finish()) finishedFlows.offer(tcb.stats);
+    }
+
+    public synchronized void closeAll() {
+        closingAll = true;
+        tcbCache.clear();
+        closingAll = false;
+    }
+
+    public synchronized int size() {
+        return tcbCache.size();
+    }
+
+    /**
+     * Connections evicted to make room so far, indexed by {@link TCB.TCBStatus#ordinal()}.
+     */
+    public synchronized long[] getEvictionsByStatus() {
+        return evictionsByStatus.clone();
+    }
+}
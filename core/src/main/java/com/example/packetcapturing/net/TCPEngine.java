@@ -0,0 +1,131 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+import com.example.packetcapturing.platform.SocketProtector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the TCP proxy as independent shards. Each shard has its own input queue, selector,
+ * {@link TCBTable} and TCPOutput/TCPInput pair, and owns every connection whose key hashes to it,
+ * so shards never share connection state or locks.
+ */
+public class TCPEngine implements Closeable {
+    private static final String TAG = TCPEngine.class.getSimpleName();
+    private static final int MAX_DEFAULT_SHARDS = 4;
+
+    private final WakeupQueue<ByteBuffer>[] inputQueues;
+    private final Selector[] selectors;
+    private final TCBTable[] tcbTables;
+    private final ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private final SocketProtector socketProtector;
+
+    /**
+     * The memory budget is split evenly over the shards' connection tables, see
+     * {@link TCBTable#BYTES_PER_CONNECTION}.
+     */
+    public TCPEngine(int shardCount, long memoryBudgetBytes, ConcurrentLinkedQueue<ByteBuffer> outputQueue, SocketProtector socketProtector) throws IOException {
+        if (shardCount < 1) throw new IllegalArgumentException("shardCount < 1: " + shardCount);
+        this.outputQueue = outputQueue;
+        this.socketProtector = socketProtector;
+
+        @SuppressWarnings("unchecked")
+        WakeupQueue<ByteBuffer>[] queues = (WakeupQueue<ByteBuffer>[]) new WakeupQueue<?>[shardCount];
+        inputQueues = queues;
+        selectors = new Selector[shardCount];
+        tcbTables = new TCBTable[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                inputQueues[i] = new WakeupQueue<>();
+                selectors[i] = Selector.open();
+                tcbTables[i] = new TCBTable(memoryBudgetBytes / shardCount);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * One shard per two cores, the other half is left to the tunnel, UDP and capture threads.
+     */
+    public static int defaultShardCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores / 2, MAX_DEFAULT_SHARDS));
+    }
+
+    public int shardCount() {
+        return selectors.length;
+    }
+
+    public int connectionCount() {
+        int count = 0;
+        for (TCBTable tcbTable : tcbTables) count += tcbTable.size();
+        return count;
+    }
+
+    /**
+     * Packets from the device waiting in the shards' input queues. Walks the queues, for
+     * periodic sampling only.
+     */
+    public int queuedPackets() {
+        int count = 0;
+        for (WakeupQueue<ByteBuffer> inputQueue : inputQueues) count += inputQueue.size();
+        return count;
+    }
+
+    /**
+     * Evictions over all shards, indexed by {@link TCB.TCBStatus#ordinal()}.
+     */
+    public long[] getEvictionsByStatus() {
+        long[] evictions = new long[TCB.TCBStatus.values().length];
+        for (TCBTable tcbTable : tcbTables) {
+            long[] shardEvictions = tcbTable.getEvictionsByStatus();
+            for (int i = 0; i < evictions.length; i++) evictions[i] += shardEvictions[i];
+        }
+        return evictions;
+    }
+
+    /**
+     * finishedFlows receives the stats of every connection once closed, null drops them.
+     */
+    public void start(ExecutorService executorService, WakeupQueue<FlowStats> finishedFlows) {
+        for (int i = 0; i < selectors.length; i++) {
+            tcbTables[i].setFinishedFlows(finishedFlows);
+            executorService.submit(new TCPInput(outputQueue, selectors[i], tcbTables[i]));
+            executorService.submit(new TCPOutput(inputQueues[i], outputQueue, selectors[i], tcbTables[i], socketProtector));
+        }
+        Log.i(TAG, "Started " + selectors.length + " shard(s)");
+    }
+
+    /**
+     * Queues a device to network TCP packet for the shard owning its connection. The view must be
+     * wrapped around the packet.
+     */
+    public void offer(ByteBuffer packet, PacketView packetView) {
+        long key = ConnectionTable.key(packetView.destinationAddress(), packetView.destinationPort(), packetView.sourcePort());
+        inputQueues[shardOf(key)].offer(packet);
+    }
+
+    int shardOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % selectors.length);
+    }
+
+    @Override
+    public void close() {
+        for (Selector selector : selectors) {
+            if (selector == null) continue;
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class TCPInput implements Runnable {
+    private static final String TAG = TCPInput.class.getSimpleName();
+    private static final Metrics.Counter reads = Metrics.counter("tcp.input.reads");
+    private static final Metrics.Counter downstreamBytes = Metrics.counter("tcp.input.downstream_bytes");
+    private static final Metrics.Counter busyNanos = Metrics.counter("tcp.input.busy_nanos");
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE;
+    // Upper bound of MSS-sized segments filled by one scattering read
+    private static final int SEGMENTS_PER_READ = 11;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private final Selector byteBufferSelector;
+    private final TCBTable tcbTable;
+    // Segment buffers for the next read, ones left unused by a short read are kept for the next
+    private final ByteBuffer[] segments = new ByteBuffer[SEGMENTS_PER_READ];
+
+    public TCPInput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, Selector byteBufferSelector, TCBTable tcbTable) {
+        this.outputQueue = outputQueue;
+        this.byteBufferSelector = byteBufferSelector;
+        this.tcbTable = tcbTable;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Log.d(TAG, "Started");
+            while (!Thread.interrupted()) {
+                int readyChannels = byteBufferSelector.select();
+
+                if (readyChannels == 0) {
+                    Thread.sleep(10);
+                    continue;
+                }
+
+                long busyStart = System.nanoTime();
+                Set<SelectionKey> keys = byteBufferSelector.selectedKeys();
+                Iterator<SelectionKey> keyIterator = keys.iterator();
+
+                while (keyIterator.hasNext() && !Thread.interrupted()) {
+                    SelectionKey key = keyIterator.next();
+                    if (key.isValid()) {
+                        if (key.isConnectable()) processConnect(key, keyIterator);
+                        else if (key.isReadable()) processInput(key, keyIterator);
+                    }
+                }
+                busyNanos.add(System.nanoTime() - busyStart);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.w(TAG, e.toString(), e);
+        }
+    }
+
+    private void processConnect(SelectionKey key, Iterator<SelectionKey> keyIterator) {
+        TCB tcb = (TCB) key.attachment();
+        // The reference packet's checksum state is shared with TCPOutput, only change it under the lock
+        synchronized (tcb) {
+            if (tcb.closed) return; // Expired or evicted, the key is cancelled
+            Packet referencePacket = tcb.referencePacket;
+            try {
+                if (tcb.channel.finishConnect()) {
+                    keyIterator.remove();
+                    tcb.status = TCB.TCBStatus.SYN_RECEIVED;
+                    tcb.stats.connected();
+
+                    ByteBuffer responseBuffer = ByteBufferPool.acquire(ByteBufferPool.SMALL);
+                    referencePacket.updateSYNACKBuffer(responseBuffer, tcb.mySequenceNum, tcb.myAcknowledgementNum, tcb.windowScale < 0 ? -1 : Packet.RECEIVE_WINDOW_SCALE);
+                    referencePacket.log();
+                    outputQueue.offer(responseBuffer);
+
+                    tcb.mySequenceNum++; // SYN counts as a byte
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Connection error: " + tcb, e);
+                ByteBuffer responseBuffer = ByteBufferPool.acquire(ByteBufferPool.SMALL);
+                referencePacket.updateTCPBuffer(responseBuffer, (byte) Packet.TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
+                outputQueue.offer(responseBuffer);
+                tcbTable.closeTCB(tcb);
+            }
+        }
+    }
+
+    private void processInput(SelectionKey key, Iterator<SelectionKey> keyIterator) {
+        keyIterator.remove();
+
+        TCB tcb = (TCB) key.attachment();
+        int segmentCount = 0;
+        synchronized (tcb) {
+            if (tcb.closed) return;
+            tcb.lastActivity = TimingWheel.now();
+            Packet referencePacket = tcb.referencePacket;
+            SocketChannel inputChannel = (SocketChannel) key.channel();
+            long allowance = tcb.sendAllowance();
+            if (allowance <= 0) {
+                pauseReading(key, tcb);
+                return;
+            }
+
+            // Leave space for the header in every segment, cut them at the device's MSS and
+            // read no more than the device can take
+            int readLimit = (int) Math.min(allowance, (long) SEGMENTS_PER_READ * tcb.mss);
+            for (int i = 0; i < SEGMENTS_PER_READ; i++) {
+                if (segments[i] == null) segments[i] = ByteBufferPool.acquire(HEADER_SIZE + Packet.TCP_MSS);
+                int segmentSize = Math.min(tcb.mss, readLimit);
+                readLimit -= segmentSize;
+                segments[i].limit(HEADER_SIZE + segmentSize);
+                segments[i].position(HEADER_SIZE);
+            }
+
+            long readBytes;
+            try {
+                readBytes = inputChannel.read(segments);
+            } catch (IOException e) {
+                Log.e(TAG, "Network read error: " + tcb, e);
+                ByteBuffer responseBuffer = takeSegment(0);
+                referencePacket.updateTCPBuffer(responseBuffer, (byte) Packet.TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
+                outputQueue.offer(responseBuffer);
+                tcbTable.closeTCB(tcb);
+                return;
+            }
+
+            if (readBytes == -1) {
+                // End of stream, stop waiting until we push more data
+                key.interestOps(0);
+                tcb.waitingForNetworkData = false;
+
+                if (tcb.status != TCB.TCBStatus.CLOSE_WAIT) return;
+
+                tcb.status = TCB.TCBStatus.LAST_ACK;
+                ByteBuffer responseBuffer = takeSegment(0);
+                referencePacket.updateTCPBuffer(responseBuffer, (byte) Packet.TCPHeader.FIN, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+                tcb.mySequenceNum++; // FIN counts as a byte
+                referencePacket.log();
+                outputQueue.offer(responseBuffer);
+                return;
+            }
+
+            reads.increment();
+            downstreamBytes.add(readBytes);
+
+            // Build every segment first and queue them together below, so they reach the device back to back
+            while (segmentCount < SEGMENTS_PER_READ && segments[segmentCount].position() > HEADER_SIZE) {
+                ByteBuffer segment = segments[segmentCount];
+                int payloadSize = segment.position() - HEADER_SIZE;
+                referencePacket.updateTCPBuffer(segment, (byte) (Packet.TCPHeader.PSH | Packet.TCPHeader.ACK), tcb.mySequenceNum, tcb.myAcknowledgementNum, payloadSize);
+                tcb.mySequenceNum += payloadSize; // Next sequence number
+                segment.position(HEADER_SIZE + payloadSize);
+                segmentCount++;
+            }
+            tcb.stats.addNetwork(segmentCount, readBytes);
+            if (tcb.sendAllowance() <= 0) pauseReading(key, tcb);
+            // A read of 0 bytes built no segment and the reference packet holds nothing new
+            if (segmentCount > 0) referencePacket.log();
+        }
+        for (int i = 0; i < segmentCount; i++) outputQueue.offer(takeSegment(i));
+    }
+
+    private void pauseReading(SelectionKey key, TCB tcb) {
+        key.interestOps(0);
+        tcb.readPaused = true;
+    }
+
+    private ByteBuffer takeSegment(int index) {
+        ByteBuffer segment = segments[index];
+        segments[index] = null;
+        segment.limit(segment.capacity());
+        return segment;
+    }
+}
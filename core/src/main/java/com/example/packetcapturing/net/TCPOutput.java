@@ -0,0 +1,288 @@
+package com.example.packetcapturing.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.example.packetcapturing.net.TCB.*;
+import com.example.packetcapturing.net.Packet.*;
+import com.example.packetcapturing.platform.Log;
+import com.example.packetcapturing.platform.SocketProtector;
+
+public class TCPOutput implements Runnable {
+    private static final String TAG = TCPOutput.class.getSimpleName();
+    private static final Metrics.Counter packets = Metrics.counter("tcp.output.packets");
+    private static final Metrics.Counter upstreamBytes = Metrics.counter("tcp.output.upstream_bytes");
+    private static final Metrics.Counter busyNanos = Metrics.counter("tcp.output.busy_nanos");
+    private static final Metrics.Histogram upstreamLatency = Metrics.histogram("tcp.device_to_upstream_us");
+    private static final long TIMER_TICK_MILLIS = 1000;
+    private static final int TIMER_SLOTS = 512;
+
+    private final SocketProtector socketProtector;
+    private final WakeupQueue<ByteBuffer> inputQueue;
+    private final ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private final Selector byteBufferSelector;
+    private final TCBTable tcbTable;
+
+    private final Random random = new Random();
+    private final PacketView packetView = new PacketView();
+    private final TimingWheel<TCB> timingWheel = new TimingWheel<>(TIMER_TICK_MILLIS, TIMER_SLOTS, new TimingWheel.ExpiryHandler<TCB>() {
+        @Override
+        public long idleTimeoutMillis(TCB tcb) {
+            return tcb.idleTimeoutMillis();
+        }
+
+        @Override
+        public void expire(TCB tcb) {
+            expireConnection(tcb);
+        }
+    });
+
+    public TCPOutput(WakeupQueue<ByteBuffer> inputQueue, ConcurrentLinkedQueue<ByteBuffer> outputQueue, Selector byteBufferSelector, TCBTable tcbTable, SocketProtector socketProtector) {
+        this.inputQueue = inputQueue;
+        this.outputQueue = outputQueue;
+        this.byteBufferSelector = byteBufferSelector;
+        this.tcbTable = tcbTable;
+        this.socketProtector = socketProtector;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        try {
+            while (!Thread.interrupted()) {
+                ByteBuffer packetBuffer = inputQueue.poll(timingWheel.millisUntilNextTick(), TimeUnit.MILLISECONDS);
+                timingWheel.advance();
+                if (packetBuffer == null) continue;
+
+                long busyStart = System.nanoTime();
+                packets.increment();
+                packetView.wrap(packetBuffer);
+                ByteBuffer responseBuffer = ByteBufferPool.acquire(ByteBufferPool.SMALL);
+
+                int destinationAddress = packetView.destinationAddress();
+                int destinationPort = packetView.destinationPort();
+                int sourcePort = packetView.sourcePort();
+
+                long key = ConnectionTable.key(destinationAddress, destinationPort, sourcePort);
+                TCB tcb = tcbTable.getTCB(key);
+                if (tcb != null) {
+                    tcb.lastActivity = TimingWheel.now();
+                    tcb.stats.addDevice(packetView.payloadSize());
+                }
+
+                if (tcb == null)
+                    initializeConnection(key, packetBuffer, responseBuffer);
+                else if (packetView.isSYN()) processDuplicateSYN(tcb, packetView.sequenceNumber(), responseBuffer);
+                else if (packetView.isRST()) closeCleanly(tcb, responseBuffer);
+                else if (packetView.isFIN()) processFIN(tcb, packetView.sequenceNumber(), packetView.acknowledgementNumber(), responseBuffer);
+                else if (packetView.isACK())
+                    processACK(tcb, packetView, responseBuffer);
+
+                // XXX: cleanup later
+                if (responseBuffer.position() == 0) ByteBufferPool.release(responseBuffer);
+                ByteBufferPool.release(packetBuffer);
+                busyNanos.add(System.nanoTime() - busyStart);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.e(TAG, e.toString(), e);
+        } finally {
+            tcbTable.closeAll();
+        }
+    }
+
+    private void initializeConnection(long key, ByteBuffer packetBuffer, ByteBuffer responseBuffer) throws IOException {
+        FlowStats stats = new FlowStats(PacketView.PROTOCOL_TCP, packetView.sourceAddress(), packetView.sourcePort(), packetView.destinationAddress(), packetView.destinationPort());
+        stats.addDevice(packetView.payloadSize());
+        // Only new connections need the full header objects, they become the TCB's reference packet
+        Packet currentPacket = new Packet(packetBuffer);
+        currentPacket.backingBuffer = null;
+        TCPHeader tcpHeader = currentPacket.tcpHeader;
+        InetAddress destinationAddress = currentPacket.ip4Header.destinationAddress;
+        int destinationPort = tcpHeader.destinationPort;
+
+        currentPacket.swapSourceAndDestination();
+        if (tcpHeader.isSYN()) {
+            SocketChannel outputChannel = SocketChannel.open();
+            outputChannel.configureBlocking(false);
+            socketProtector.protect(outputChannel.socket());
+
+            TCB tcb = new TCB(key, random.nextInt(Short.MAX_VALUE + 1), tcpHeader.sequenceNumber, tcpHeader.sequenceNumber + 1, tcpHeader.acknowledgementNumber, outputChannel, currentPacket);
+            tcb.mss = Math.min(tcpHeader.getMSS(), Packet.TCP_MSS);
+            tcb.windowScale = tcpHeader.getWindowScale();
+            tcb.deviceWindow = tcpHeader.window; // Never scaled in a SYN
+            tcb.status = TCBStatus.SYN_SENT; // The timing wheel needs a status for the idle timeout
+            tcb.stats = stats;
+            tcbTable.putTCB(key, tcb);
+            tcb.lastActivity = TimingWheel.now();
+            timingWheel.schedule(tcb);
+
+            try {
+                outputChannel.connect(new InetSocketAddress(destinationAddress, destinationPort));
+                if (outputChannel.finishConnect()) {
+                    tcb.status = TCBStatus.SYN_RECEIVED;
+                    stats.connected();
+                    currentPacket.updateSYNACKBuffer(responseBuffer, tcb.mySequenceNum, tcb.myAcknowledgementNum, tcb.windowScale < 0 ? -1 : Packet.RECEIVE_WINDOW_SCALE);
+                    tcb.mySequenceNum++; // SYN counts as a byte
+                } else {
+                    byteBufferSelector.wakeup();
+                    tcb.selectionKey = outputChannel.register(byteBufferSelector, SelectionKey.OP_CONNECT, tcb);
+                    return;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Connection error: " + tcb, e);
+                currentPacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.RST, 0, tcb.myAcknowledgementNum, 0);
+                tcbTable.closeTCB(tcb);
+            }
+        } else {
+            currentPacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.RST, 0, tcpHeader.sequenceNumber + 1, 0);
+        }
+        outputQueue.offer(responseBuffer);
+    }
+
+    private void processDuplicateSYN(TCB tcb, long sequenceNumber, ByteBuffer responseBuffer) {
+        synchronized (tcb) {
+            if (tcb.status == TCBStatus.SYN_SENT) {
+                tcb.myAcknowledgementNum = sequenceNumber + 1;
+                return;
+            }
+            sendRST(tcb, 1, responseBuffer);
+        }
+    }
+
+    private void processFIN(TCB tcb, long sequenceNumber, long acknowledgementNumber, ByteBuffer responseBuffer) {
+        synchronized (tcb) {
+            Packet referencePacket = tcb.referencePacket;
+            tcb.myAcknowledgementNum = sequenceNumber + 1;
+            tcb.theirAcknowledgementNum = acknowledgementNumber;
+
+            if (tcb.waitingForNetworkData) {
+                tcb.status = TCBStatus.CLOSE_WAIT;
+                referencePacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.ACK, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+            } else {
+                tcb.status = TCBStatus.LAST_ACK;
+                referencePacket.updateTCPBuffer(responseBuffer, (byte) (TCPHeader.FIN | TCPHeader.ACK), tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+                tcb.mySequenceNum++; // FIN counts as a byte
+            }
+            referencePacket.log();
+        }
+        outputQueue.offer(responseBuffer);
+    }
+
+    private void processACK(TCB tcb, PacketView packetView, ByteBuffer responseBuffer) throws IOException {
+        ByteBuffer payloadBuffer = packetView.buffer();
+        int payloadSize = packetView.payloadSize();
+        payloadBuffer.limit(packetView.totalLength());
+        payloadBuffer.position(packetView.payloadOffset());
+
+        synchronized (tcb) {
+            SocketChannel outputChannel = tcb.channel;
+            tcb.theirAcknowledgementNum = packetView.acknowledgementNumber();
+            tcb.updateDeviceWindow(packetView.window());
+            if (tcb.readPaused && tcb.waitingForNetworkData && tcb.sendAllowance() > 0) {
+                // The device acknowledged data or opened its window, read from upstream again
+                tcb.readPaused = false;
+                byteBufferSelector.wakeup();
+                tcb.selectionKey.interestOps(SelectionKey.OP_READ);
+            }
+
+            if (tcb.status == TCB.TCBStatus.SYN_RECEIVED) {
+                tcb.status = TCB.TCBStatus.ESTABLISHED;
+
+                byteBufferSelector.wakeup();
+                tcb.selectionKey = outputChannel.register(byteBufferSelector, SelectionKey.OP_READ, tcb);
+                tcb.waitingForNetworkData = true;
+            } else if (tcb.status == TCB.TCBStatus.LAST_ACK) {
+                closeCleanly(tcb, responseBuffer);
+                return;
+            }
+
+            if (payloadSize == 0) return; // Empty ACK, ignore
+
+            if (!tcb.waitingForNetworkData) {
+                byteBufferSelector.wakeup();
+                tcb.selectionKey.interestOps(SelectionKey.OP_READ);
+                tcb.waitingForNetworkData = true;
+            }
+
+            long sequenceNumber = packetView.sequenceNumber();
+            // Bytes of this segment the device already sent before, negative if it arrived early
+            int overlap = ReassemblyBuffer.compare(tcb.myAcknowledgementNum, sequenceNumber);
+            if (overlap < 0) {
+                // Hold it until the gap is filled and repeat the current ACK
+                if (tcb.reassemblyBuffer == null) tcb.reassemblyBuffer = new ReassemblyBuffer();
+                tcb.reassemblyBuffer.add(sequenceNumber, payloadBuffer);
+            } else if (overlap < payloadSize) {
+                // Forward only the new bytes, then whatever held data is now contiguous
+                payloadBuffer.position(payloadBuffer.position() + overlap);
+                int forwardSize = payloadSize - overlap;
+                try {
+                    while (payloadBuffer.hasRemaining()) outputChannel.write(payloadBuffer);
+                    tcb.myAcknowledgementNum += forwardSize;
+                    upstreamBytes.add(forwardSize);
+                    long latency = Metrics.nanosSinceStamp(payloadBuffer);
+                    if (latency >= 0) upstreamLatency.record(latency / 1000);
+
+                    if (tcb.reassemblyBuffer != null) {
+                        ByteBuffer heldBuffer;
+                        while ((heldBuffer = tcb.reassemblyBuffer.poll(tcb.myAcknowledgementNum)) != null) {
+                            forwardSize = heldBuffer.remaining();
+                            try {
+                                while (heldBuffer.hasRemaining()) outputChannel.write(heldBuffer);
+                            } finally {
+                                ByteBufferPool.release(heldBuffer);
+                            }
+                            tcb.myAcknowledgementNum += forwardSize;
+                            upstreamBytes.add(forwardSize);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Network write error: " + tcb, e);
+                    sendRST(tcb, forwardSize, responseBuffer);
+                    return;
+                }
+            }
+            // else a retransmission of data already forwarded, only ACK it again
+
+            Packet referencePacket = tcb.referencePacket;
+            referencePacket.updateTCPBuffer(responseBuffer, (byte) Packet.TCPHeader.ACK, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+            referencePacket.log();
+        }
+        outputQueue.offer(responseBuffer);
+    }
+
+    private void expireConnection(TCB tcb) {
+        Log.d(TAG, "Idle timeout: " + tcb + " " + tcb.status);
+        ByteBuffer responseBuffer = ByteBufferPool.acquire(ByteBufferPool.SMALL);
+        synchronized (tcb) {
+            if (tcb.closed) {
+                ByteBufferPool.release(responseBuffer);
+                return;
+            }
+            // Reset the app's side too rather than leave it a connection that silently went dead
+            tcb.referencePacket.updateTCPBuffer(responseBuffer, (byte) TCPHeader.RST, tcb.mySequenceNum, tcb.myAcknowledgementNum, 0);
+            tcbTable.closeTCB(tcb);
+        }
+        outputQueue.offer(responseBuffer);
+    }
+
+    private void sendRST(TCB tcb, int prevPayloadSize, ByteBuffer buffer) {
+        tcb.referencePacket.updateTCPBuffer(buffer, (byte) Packet.TCPHeader.RST, 0, tcb.myAcknowledgementNum + prevPayloadSize, 0);
+        outputQueue.offer(buffer);
+        tcbTable.closeTCB(tcb);
+    }
+
+    private void closeCleanly(TCB tcb, ByteBuffer buffer) {
+        // The unused buffer is released by run(), releasing it here too would pool it twice
+        tcbTable.closeTCB(tcb);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.packetcapturing.net;
+
+/**
+ * Hashed timing wheel for idle timeouts. Entries are linked into the slot of their deadline
+ * themselves, so scheduling allocates nothing and each tick only visits the slot that is due.
+ *
+ * Activity does not touch the wheel, the owner just updates {@link Entry#lastActivity}. When an
+ * entry's slot comes up it is checked against its current timeout, and either expired or
+ * scheduled again for lastActivity + timeout. Entries marked closed are dropped when reached.
+ * Not thread safe: schedule and advance must be called from the thread owning the wheel.
+ */
+public class TimingWheel<E extends TimingWheel.Entry> {
+    private final long tickMillis;
+    private final Entry[] slots;
+    private final int slotMask;
+    private final ExpiryHandler<E> handler;
+    private long currentTick;
+
+    /**
+     * slotCount must be a power of two.
+     */
+    public TimingWheel(long tickMillis, int slotCount, ExpiryHandler<E> handler) {
+        if (Integer.bitCount(slotCount) != 1) throw new IllegalArgumentException("slotCount must be a power of two: " + slotCount);
+        this.tickMillis = tickMillis;
+        this.slots = new Entry[slotCount];
+        this.slotMask = slotCount - 1;
+        this.handler = handler;
+        this.currentTick = now() / tickMillis;
+    }
+
+    /**
+     * Monotonic clock used for deadlines and {@link Entry#lastActivity}.
+     */
+    public static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Starts tracking a new entry, its lastActivity must be set.
+     */
+    public void schedule(E entry) {
+        long deadline = entry.lastActivity + handler.idleTimeoutMillis(entry);
+        // Round up so an entry never fires before its deadline
+        long deadlineTick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+        entry.rounds = (deadlineTick - currentTick - 1) / slots.length;
+
+        int slot = (int) (deadlineTick & slotMask);
+        entry.previous = null;
+        entry.next = slots[slot];
+        if (slots[slot] != null) slots[slot].previous = entry;
+        slots[slot] = entry;
+    }
+
+    public long millisUntilNextTick() {
+        return Math.max((currentTick + 1) * tickMillis - now(), 0);
+    }
+
+    /**
+     * Processes every tick up to now. Expired entries are passed to the handler.
+     */
+    @SuppressWarnings("unchecked")
+    public void advance() {
+        long now = now();
+        long targetTick = now / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            int slot = (int) (currentTick & slotMask);
+            Entry entry = slots[slot];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.rounds > 0) {
+                    entry.rounds--;
+                } else {
+                    unlink(slot, entry);
+                    E e = (E) entry;
+                    if (!entry.closed) {
+                        if (now - entry.lastActivity >= handler.idleTimeoutMillis(e)) handler.expire(e);
+                        else schedule(e);
+                    }
+                }
+                entry = next;
+            }
+        }
+    }
+
+    private void unlink(int slot, Entry entry) {
+        if (entry.previous == null) slots[slot] = entry.next;
+        else entry.previous.next = entry.next;
+        if (entry.next != null) entry.next.previous = entry.previous;
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    public static class Entry {
+        // Written from any thread that sees activity, read by the wheel's thread
+        public volatile long lastActivity;
+        // Set once the owner has closed it, the wheel then drops it without calling the handler
+        public volatile boolean closed;
+
+        Entry previous, next;
+        long rounds;
+    }
+
+    public interface ExpiryHandler<E> {
+        long idleTimeoutMillis(E entry);
+
+        void expire(E entry);
+    }
+}
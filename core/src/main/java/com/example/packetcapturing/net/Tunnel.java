@@ -0,0 +1,14 @@
+package com.example.packetcapturing.net;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Device side of the proxy. Each read returns one IPv4 packet from the device and each write
+ * passes one packet to it, like a TUN descriptor. Channels are closed by the threads using them.
+ */
+public interface Tunnel {
+    ReadableByteChannel input();
+
+    WritableByteChannel output();
+}
@@ -0,0 +1,91 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.platform.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Both halves of the tunnel on one thread, for TUN descriptors that cannot be opened in blocking
+ * mode (pre-Lollipop). Sleeps briefly whenever neither direction had a packet.
+ */
+public class TunnelPoller implements Runnable {
+    private static final String TAG = TunnelPoller.class.getSimpleName();
+
+    private final ReadableByteChannel vpnInput;
+    private final WritableByteChannel vpnOutput;
+    private final ConcurrentLinkedQueue<ByteBuffer> deviceToNetworkUDPQueue;
+    private final TCPEngine tcpEngine;
+    private final ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue;
+    private final CaptureTap captureTap;
+    private final PacketView packetView = new PacketView();
+
+    public TunnelPoller(Tunnel tunnel, ConcurrentLinkedQueue<ByteBuffer> deviceToNetworkUDPQueue, TCPEngine tcpEngine, ConcurrentLinkedQueue<ByteBuffer> networkToDeviceQueue, CaptureTap captureTap) {
+        this.vpnInput = tunnel.input();
+        this.vpnOutput = tunnel.output();
+        this.deviceToNetworkUDPQueue = deviceToNetworkUDPQueue;
+        this.tcpEngine = tcpEngine;
+        this.networkToDeviceQueue = networkToDeviceQueue;
+        this.captureTap = captureTap;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        try {
+            ByteBuffer bufferToNetwork = null;
+            boolean dataSent = true;
+            boolean dataReceived;
+            while (!Thread.interrupted()) {
+                if (dataSent) bufferToNetwork = ByteBufferPool.acquire(Packet.MTU);
+                else bufferToNetwork.clear();
+
+                // TODO: Block when not connected
+                int readBytes = vpnInput.read(bufferToNetwork);
+                if (readBytes > 0) {
+                    bufferToNetwork.flip();
+                    bufferToNetwork.limit(readBytes);
+                    bufferToNetwork.position(0);
+
+                    dataSent = TunnelReader.dispatch(bufferToNetwork, packetView, captureTap, deviceToNetworkUDPQueue, tcpEngine);
+                } else {
+                    dataSent = false;
+                }
+
+                ByteBuffer bufferFromNetwork = networkToDeviceQueue.poll();
+                if (bufferFromNetwork != null) {
+                    bufferFromNetwork.flip();
+                    if (packetView.wrap(bufferFromNetwork).isValid()) captureTap.capture(packetView, RawPacket.DIRECTION_INBOUND);
+                    while (bufferFromNetwork.hasRemaining()) vpnOutput.write(bufferFromNetwork);
+                    dataReceived = true;
+                    ByteBufferPool.release(bufferFromNetwork);
+                } else {
+                    dataReceived = false;
+                }
+
+                // Sleep-looping is not very battery-friendly, TunnelReader/TunnelWriter block instead
+                if (!dataSent && !dataReceived) Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.w(TAG, e.toString(), e);
+        } finally {
+            closeChannel(vpnInput);
+            closeChannel(vpnOutput);
+        }
+    }
+
+    private static void closeChannel(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.platform.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Device to network half of the tunnel. Blocks on the TUN descriptor, so it must be
+ * opened in blocking mode, and hands every packet to the UDP output queue or the TCP engine.
+ */
+public class TunnelReader implements Runnable {
+    private static final String TAG = TunnelReader.class.getSimpleName();
+    private static final Metrics.Counter readPackets = Metrics.counter("tun.read.packets");
+    private static final Metrics.Counter readBytes = Metrics.counter("tun.read.bytes");
+    private static final Metrics.Counter busyNanos = Metrics.counter("tun.reader.busy_nanos");
+
+    private final ReadableByteChannel vpnInput;
+    private final ConcurrentLinkedQueue<ByteBuffer> deviceToNetworkUDPQueue;
+    private final TCPEngine tcpEngine;
+    private final CaptureTap captureTap;
+    private final PacketView packetView = new PacketView();
+
+    public TunnelReader(ReadableByteChannel vpnInput, ConcurrentLinkedQueue<ByteBuffer> deviceToNetworkUDPQueue, TCPEngine tcpEngine, CaptureTap captureTap) {
+        this.vpnInput = vpnInput;
+        this.deviceToNetworkUDPQueue = deviceToNetworkUDPQueue;
+        this.tcpEngine = tcpEngine;
+        this.captureTap = captureTap;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        try {
+            ByteBuffer bufferToNetwork = ByteBufferPool.acquire(Packet.MTU);
+            while (!Thread.interrupted()) {
+                int readBytes = vpnInput.read(bufferToNetwork);
+                if (readBytes == -1) break;
+                if (readBytes == 0) continue;
+
+                long busyStart = System.nanoTime();
+                bufferToNetwork.flip();
+                if (dispatch(bufferToNetwork, packetView, captureTap, deviceToNetworkUDPQueue, tcpEngine)) {
+                    bufferToNetwork = ByteBufferPool.acquire(Packet.MTU);
+                } else {
+                    bufferToNetwork.clear();
+                }
+                busyNanos.add(System.nanoTime() - busyStart);
+            }
+        } catch (ClosedByInterruptException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.w(TAG, e.toString(), e);
+        } finally {
+            try {
+                vpnInput.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Records one packet read from the device for capture and queues it for the matching output
+     * thread. Returns false if the buffer was not handed off and can be reused.
+     */
+    public static boolean dispatch(ByteBuffer bufferToNetwork, PacketView packetView, CaptureTap captureTap, ConcurrentLinkedQueue<ByteBuffer> deviceToNetworkUDPQueue, TCPEngine tcpEngine) {
+        Metrics.stamp(bufferToNetwork);
+        readPackets.increment();
+        readBytes.add(bufferToNetwork.remaining());
+        packetView.wrap(bufferToNetwork);
+        if (!packetView.isValid()) {
+            Log.w(TAG, "Dropping malformed or non-IPv4 packet");
+            return false;
+        }
+
+        if (packetView.isUDP()) {
+            captureTap.capture(packetView, RawPacket.DIRECTION_OUTBOUND);
+            deviceToNetworkUDPQueue.offer(bufferToNetwork);
+        } else if (packetView.isTCP()) {
+            captureTap.capture(packetView, RawPacket.DIRECTION_OUTBOUND);
+            tcpEngine.offer(bufferToNetwork, packetView);
+        } else {
+            Log.w(TAG, "Unknown packet type: " + packetView.protocol());
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.platform.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Network to device half of the tunnel. Sleeps in {@link WakeupQueue#take()} until
+ * TCPInput/UDPInput/TCPOutput queue a response, then drains up to {@link #MAX_BATCH} queued
+ * packets, captures and writes them back to back and releases them together.
+ *
+ * Each packet still takes its own write: the TUN driver reads one packet per write, so a
+ * gathering write would merge the batch into a single malformed packet. Batch sizes and write
+ * calls are kept in {@link Metrics}.
+ */
+public class TunnelWriter implements Runnable {
+    private static final String TAG = TunnelWriter.class.getSimpleName();
+    private static final int MAX_BATCH = 64;
+    private static final Metrics.Counter writtenPackets = Metrics.counter("tun.write.packets");
+    private static final Metrics.Counter writeCalls = Metrics.counter("tun.write.calls");
+    private static final Metrics.Counter busyNanos = Metrics.counter("tun.writer.busy_nanos");
+    private static final Metrics.Histogram batchSizes = Metrics.histogram("tun.write.batch_size");
+
+    private final WritableByteChannel vpnOutput;
+    private final WakeupQueue<ByteBuffer> networkToDeviceQueue;
+    private final CaptureTap captureTap;
+    private final PacketView packetView = new PacketView();
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+
+    public TunnelWriter(WritableByteChannel vpnOutput, WakeupQueue<ByteBuffer> networkToDeviceQueue, CaptureTap captureTap) {
+        this.vpnOutput = vpnOutput;
+        this.networkToDeviceQueue = networkToDeviceQueue;
+        this.captureTap = captureTap;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        try {
+            while (!Thread.interrupted()) {
+                int batchSize = 0;
+                batch[batchSize++] = networkToDeviceQueue.take();
+                long busyStart = System.nanoTime();
+                ByteBuffer bufferFromNetwork;
+                while (batchSize < MAX_BATCH && (bufferFromNetwork = networkToDeviceQueue.poll()) != null)
+                    batch[batchSize++] = bufferFromNetwork;
+
+                int writeCallCount = 0;
+                for (int i = 0; i < batchSize; i++) {
+                    bufferFromNetwork = batch[i];
+                    bufferFromNetwork.flip();
+                    if (packetView.wrap(bufferFromNetwork).isValid()) captureTap.capture(packetView, RawPacket.DIRECTION_INBOUND);
+                    while (bufferFromNetwork.hasRemaining()) {
+                        vpnOutput.write(bufferFromNetwork);
+                        writeCallCount++;
+                    }
+                }
+
+                for (int i = 0; i < batchSize; i++) {
+                    ByteBufferPool.release(batch[i]);
+                    batch[i] = null;
+                }
+                writtenPackets.add(batchSize);
+                writeCalls.add(writeCallCount);
+                batchSizes.record(batchSize);
+                busyNanos.add(System.nanoTime() - busyStart);
+            }
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.e(TAG, "Tunnel write error, nothing reaches the device any more", e);
+        } finally {
+            // A failed write leaves the rest of its batch unreleased
+            for (int i = 0; i < MAX_BATCH; i++) {
+                if (batch[i] != null) ByteBufferPool.release(batch[i]);
+                batch[i] = null;
+            }
+            try {
+                vpnOutput.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.packetcapturing.net;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * One UDP flow proxied by UDPOutput, attached to its channel's selection key for UDPInput.
+ */
+public class UDPFlow extends TimingWheel.Entry {
+    private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+    // Lookups are one request and one response, no need to hold the socket for long
+    private static final long DNS_IDLE_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int DNS_PORT = 53;
+
+    public final long key;
+    public final DatagramChannel channel;
+    public final FlowStats stats;
+    // Only UDPInput writes its buffer, once the flow is published
+    public final Packet referencePacket;
+
+    public UDPFlow(long key, DatagramChannel channel, Packet referencePacket, FlowStats stats) {
+        this.key = key;
+        this.channel = channel;
+        this.referencePacket = referencePacket;
+        this.stats = stats;
+    }
+
+    public long idleTimeoutMillis() {
+        return isDns() ? DNS_IDLE_TIMEOUT_MILLIS : IDLE_TIMEOUT_MILLIS;
+    }
+
+    public boolean isDns() {
+        return ((key >>> 16) & 0xFFFF) == DNS_PORT;
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ConnectionTable.keyToString(key);
+    }
+}
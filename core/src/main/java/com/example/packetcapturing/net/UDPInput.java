@@ -0,0 +1,104 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class UDPInput implements Runnable {
+    private static final String TAG = UDPInput.class.getSimpleName();
+    private static final Metrics.Counter packets = Metrics.counter("udp.input.packets");
+    private static final Metrics.Counter downstreamBytes = Metrics.counter("udp.input.downstream_bytes");
+    private static final Metrics.Counter busyNanos = Metrics.counter("udp.input.busy_nanos");
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<ByteBuffer> outputQueue;
+    private ByteBuffer receiveBuffer;
+
+    public UDPInput(ConcurrentLinkedQueue<ByteBuffer> outputQueue, Selector selector) {
+        this.outputQueue = outputQueue;
+        this.selector = selector;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Log.i(TAG, "Started");
+            while (!Thread.interrupted()) {
+                int readyChannels = selector.select();
+
+                if (readyChannels == 0) {
+                    Thread.sleep(10);
+                    continue;
+                }
+
+                long busyStart = System.nanoTime();
+                Set<SelectionKey> keys = selector.selectedKeys();
+                Iterator<SelectionKey> keyIterator = keys.iterator();
+
+                while (keyIterator.hasNext() && !Thread.interrupted()) {
+                    SelectionKey key = keyIterator.next();
+                    if (key.isValid() && key.isReadable()) {
+                        keyIterator.remove();
+
+                        if (receiveBuffer == null) receiveBuffer = ByteBufferPool.acquire();
+                        // Leave space for the header
+                        receiveBuffer.clear();
+                        receiveBuffer.position(HEADER_SIZE);
+
+                        UDPFlow flow = (UDPFlow) key.attachment();
+                        if (flow.closed) continue; // Expired
+                        Packet referencePacket = flow.referencePacket;
+                        flow.lastActivity = TimingWheel.now();
+
+                        DatagramChannel inputChannel = (DatagramChannel) key.channel();
+                        int readBytes;
+                        try {
+                            readBytes = inputChannel.read(receiveBuffer);
+                        } catch (IOException e) {
+                            // Also hit when the flow expires while its key is selected
+                            Log.w(TAG, "Network read error: " + flow, e);
+                            continue;
+                        }
+
+                        // Most datagrams (DNS...) are small, move them to a buffer of their size
+                        // and keep the large one for the next read
+                        ByteBuffer packetBuffer = receiveBuffer;
+                        if (HEADER_SIZE + readBytes <= ByteBufferPool.MEDIUM) {
+                            packetBuffer = ByteBufferPool.acquire(HEADER_SIZE + readBytes);
+                            receiveBuffer.flip();
+                            receiveBuffer.position(HEADER_SIZE);
+                            packetBuffer.position(HEADER_SIZE);
+                            packetBuffer.put(receiveBuffer);
+                        } else {
+                            receiveBuffer = null;
+                        }
+
+                        // Host names for logs and captures, from answers the app receives anyway
+                        if (flow.isDns()) DnsCache.getInstance().recordResponse(packetBuffer, HEADER_SIZE, readBytes);
+
+                        referencePacket.updateUDPBuffer(packetBuffer, readBytes);
+                        packetBuffer.position(HEADER_SIZE + readBytes);
+
+                        outputQueue.offer(packetBuffer);
+                        flow.stats.addNetwork(1, readBytes);
+                        packets.increment();
+                        downstreamBytes.add(readBytes);
+                    }
+                }
+                busyNanos.add(System.nanoTime() - busyStart);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.w(TAG, e.toString(), e);
+        }
+    }
+}
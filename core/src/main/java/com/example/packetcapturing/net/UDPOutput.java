@@ -0,0 +1,150 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.Log;
+import com.example.packetcapturing.platform.SocketProtector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+public class UDPOutput implements Runnable {
+    private static final String TAG = UDPOutput.class.getSimpleName();
+    private static final int MAX_CACHE_SIZE = 50;
+    private static final long TIMER_TICK_MILLIS = 1000;
+    private static final int TIMER_SLOTS = 128;
+    private static final Metrics.Counter packets = Metrics.counter("udp.output.packets");
+    private static final Metrics.Counter upstreamBytes = Metrics.counter("udp.output.upstream_bytes");
+    private static final Metrics.Counter busyNanos = Metrics.counter("udp.output.busy_nanos");
+    private static final Metrics.Histogram upstreamLatency = Metrics.histogram("udp.device_to_upstream_us");
+    private final SocketProtector socketProtector;
+    private final WakeupQueue<ByteBuffer> inputQueue;
+    private final WakeupQueue<FlowStats> finishedFlows;
+    private final PacketView packetView = new PacketView();
+    private final Selector selector;
+    private final ConnectionTable<UDPFlow> channelCache = new ConnectionTable<>(MAX_CACHE_SIZE, new ConnectionTable.CleanupCallback<UDPFlow>() {
+        @Override
+        public void cleanup(long key, UDPFlow flow) {
+            closeFlow(flow);
+        }
+    });
+    private final TimingWheel<UDPFlow> timingWheel = new TimingWheel<>(TIMER_TICK_MILLIS, TIMER_SLOTS, new TimingWheel.ExpiryHandler<UDPFlow>() {
+        @Override
+        public long idleTimeoutMillis(UDPFlow flow) {
+            return flow.idleTimeoutMillis();
+        }
+
+        @Override
+        public void expire(UDPFlow flow) {
+            channelCache.remove(flow.key);
+            closeFlow(flow);
+        }
+    });
+
+    /**
+     * finishedFlows receives the stats of every flow once closed, null drops them.
+     */
+    public UDPOutput(WakeupQueue<ByteBuffer> inputQueue, Selector selector, SocketProtector socketProtector, WakeupQueue<FlowStats> finishedFlows) {
+        this.inputQueue = inputQueue;
+        this.finishedFlows = finishedFlows;
+        this.selector = selector;
+        this.socketProtector = socketProtector;
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Started");
+        try {
+            while (!Thread.interrupted()) {
+                ByteBuffer packetBuffer = inputQueue.poll(timingWheel.millisUntilNextTick(), TimeUnit.MILLISECONDS);
+                timingWheel.advance();
+                if (packetBuffer == null) continue;
+
+                long busyStart = System.nanoTime();
+                packets.increment();
+                packetView.wrap(packetBuffer);
+
+                int destinationPort = packetView.destinationPort();
+                int sourcePort = packetView.sourcePort();
+
+                long key = ConnectionTable.key(packetView.destinationAddress(), destinationPort, sourcePort);
+                UDPFlow flow = channelCache.get(key);
+                if (flow == null) {
+                    // Only new flows need the full header objects, they become the reference packet for responses
+                    Packet referencePacket = new Packet(packetBuffer.duplicate());
+                    referencePacket.backingBuffer = null;
+                    InetAddress destinationAddress = referencePacket.ip4Header.destinationAddress;
+
+                    DatagramChannel outputChannel = DatagramChannel.open();
+                    socketProtector.protect(outputChannel.socket());
+                    try {
+                        outputChannel.connect(new InetSocketAddress(destinationAddress, destinationPort));
+                    } catch (IOException e) {
+                        Log.e(TAG, "Connection error: " + ConnectionTable.keyToString(key), e);
+                        closeChannel(outputChannel);
+                        ByteBufferPool.release(packetBuffer);
+                        busyNanos.add(System.nanoTime() - busyStart);
+                        continue;
+                    }
+                    outputChannel.configureBlocking(false);
+                    referencePacket.swapSourceAndDestination();
+
+                    FlowStats stats = new FlowStats(PacketView.PROTOCOL_UDP, packetView.sourceAddress(), sourcePort, packetView.destinationAddress(), destinationPort);
+                    flow = new UDPFlow(key, outputChannel, referencePacket, stats);
+                    flow.lastActivity = TimingWheel.now();
+                    selector.wakeup();
+                    outputChannel.register(selector, SelectionKey.OP_READ, flow);
+
+                    channelCache.put(key, flow);
+                    timingWheel.schedule(flow);
+                } else {
+                    flow.lastActivity = TimingWheel.now();
+                }
+
+                try {
+                    packetBuffer.limit(packetView.totalLength());
+                    packetBuffer.position(packetView.payloadOffset());
+                    int payloadSize = packetBuffer.remaining();
+                    while (packetBuffer.hasRemaining()) flow.channel.write(packetBuffer);
+                    flow.stats.addDevice(payloadSize);
+                    upstreamBytes.add(payloadSize);
+                    long latency = Metrics.nanosSinceStamp(packetBuffer);
+                    if (latency >= 0) upstreamLatency.record(latency / 1000);
+                } catch (IOException e) {
+                    Log.e(TAG, "Network write error: " + ConnectionTable.keyToString(key), e);
+                    channelCache.remove(key);
+                    closeFlow(flow);
+                }
+                ByteBufferPool.release(packetBuffer);
+                busyNanos.add(System.nanoTime() - busyStart);
+            }
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Stopping");
+        } catch (IOException e) {
+            Log.i(TAG, e.toString(), e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void closeFlow(UDPFlow flow) {
+        flow.close();
+        if (finishedFlows != null && flow.stats.finish()) finishedFlows.offer(flow.stats);
+    }
+
+    private void closeAll() {
+        channelCache.clear();
+    }
+
+    private void closeChannel(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.packetcapturing.net;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free queue whose single consumer can block in {@link #take()} instead of sleep-polling.
+ * Producers keep using {@link #offer(Object)} and unpark the consumer only when it is parked.
+ * A bounded queue counts its elements and refuses offers once full, elements must then only be
+ * removed through {@link #poll()} and the methods built on it.
+ */
+public class WakeupQueue<E> extends ConcurrentLinkedQueue<E> {
+    private static final long serialVersionUID = 1L;
+
+    private transient volatile Thread waiter;
+    private final int capacity;
+    // Null when unbounded
+    private final AtomicInteger count;
+
+    public WakeupQueue() {
+        capacity = Integer.MAX_VALUE;
+        count = null;
+    }
+
+    public WakeupQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity " + capacity);
+        this.capacity = capacity;
+        count = new AtomicInteger();
+    }
+
+    /**
+     * Returns false, dropping e, if the queue is bounded and full.
+     */
+    @Override
+    public boolean offer(E e) {
+        if (count != null && count.incrementAndGet() > capacity) {
+            count.decrementAndGet();
+            return false;
+        }
+        super.offer(e);
+        Thread consumer = waiter;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        E e = super.poll();
+        if (e != null && count != null) count.decrementAndGet();
+        return e;
+    }
+
+    /**
+     * Constant time when bounded, otherwise walks the queue.
+     */
+    @Override
+    public int size() {
+        return count != null ? count.get() : super.size();
+    }
+
+    public E take() throws InterruptedException {
+        E e = poll();
+        if (e != null) return e;
+
+        waiter = Thread.currentThread();
+        try {
+            // Re-check after publishing ourselves, so an offer() racing with us is never missed
+            while ((e = poll()) == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        } finally {
+            waiter = null;
+        }
+        return e;
+    }
+
+    /**
+     * Like {@link #take()}, but gives up and returns null after {@code timeout}.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) return e;
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiter = Thread.currentThread();
+        try {
+            while ((e = poll()) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return null;
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        } finally {
+            waiter = null;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.packetcapturing.pcaputils;
+
+import com.example.packetcapturing.net.PacketView;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The 5-tuple of an IPv4 flow, the same for both directions: the endpoints are stored in a
+ * fixed order, so a request and its response have equal keys. Ports are 0 for protocols
+ * without them and for fragments after the first.
+ */
+public final class FlowKey {
+    private static final int PROTOCOL_ICMP = 1;
+
+    private final int protocol;
+    private final int addressA;
+    private final int portA;
+    private final int addressB;
+    private final int portB;
+
+    private FlowKey(int protocol, int addressA, int portA, int addressB, int portB) {
+        this.protocol = protocol;
+        this.addressA = addressA;
+        this.portA = portA;
+        this.addressB = addressB;
+        this.portB = portB;
+    }
+
+    public static FlowKey of(int protocol, int sourceAddress, int sourcePort, int destinationAddress, int destinationPort) {
+        int order = Integer.compare(sourceAddress ^ Integer.MIN_VALUE, destinationAddress ^ Integer.MIN_VALUE);
+        if (order < 0 || (order == 0 && sourcePort <= destinationPort)) {
+            return new FlowKey(protocol, sourceAddress, sourcePort, destinationAddress, destinationPort);
+        }
+        return new FlowKey(protocol, destinationAddress, destinationPort, sourceAddress, sourcePort);
+    }
+
+    /**
+     * Key of the IPv4 packet at position in a big-endian buffer, of which length bytes were
+     * captured, or null if it is not IPv4 or too short to tell.
+     */
+    static FlowKey of(ByteBuffer buffer, int position, int length) {
+        if (length < 20 || (buffer.get(position) & 0xF0) != 0x40) return null;
+        int headerLength = (buffer.get(position) & 0x0F) << 2;
+        int protocol = buffer.get(position + 9) & 0xFF;
+        int sourceAddress = buffer.getInt(position + 12);
+        int destinationAddress = buffer.getInt(position + 16);
+        int sourcePort = 0;
+        int destinationPort = 0;
+        boolean firstFragment = (buffer.getShort(position + 6) & 0x1FFF) == 0;
+        if ((protocol == PacketView.PROTOCOL_TCP || protocol == PacketView.PROTOCOL_UDP) && firstFragment && length >= headerLength + 4) {
+            sourcePort = buffer.getShort(position + headerLength) & 0xFFFF;
+            destinationPort = buffer.getShort(position + headerLength + 2) & 0xFFFF;
+        }
+        return of(protocol, sourceAddress, sourcePort, destinationAddress, destinationPort);
+    }
+
+    /**
+     * Parses the {@link #toString()} form, "tcp 10.0.0.2:40000 93.184.216.34:443", in either
+     * endpoint order; the protocol may also be a number.
+     */
+    public static FlowKey parse(String flow) {
+        String[] parts = flow.trim().split("\\s+(<->\\s+)?");
+        if (parts.length != 3) throw new IllegalArgumentException("Expected \"protocol address:port address:port\": " + flow);
+        int protocol;
+        if (parts[0].equalsIgnoreCase("tcp")) protocol = PacketView.PROTOCOL_TCP;
+        else if (parts[0].equalsIgnoreCase("udp")) protocol = PacketView.PROTOCOL_UDP;
+        else if (parts[0].equalsIgnoreCase("icmp")) protocol = PROTOCOL_ICMP;
+        else protocol = parseNumber(parts[0], 255);
+        long a = parseEndpoint(parts[1]);
+        long b = parseEndpoint(parts[2]);
+        return of(protocol, (int) (a >>> 16), (int) (a & 0xFFFF), (int) (b >>> 16), (int) (b & 0xFFFF));
+    }
+
+    // Address in the upper 32 bits, port in the lower 16
+    private static long parseEndpoint(String endpoint) {
+        int colon = endpoint.lastIndexOf(':');
+        String address = colon >= 0 ? endpoint.substring(0, colon) : endpoint;
+        int port = colon >= 0 ? parseNumber(endpoint.substring(colon + 1), 65535) : 0;
+        String[] octets = address.split("\\.");
+        if (octets.length != 4) throw new IllegalArgumentException("Bad address: " + address);
+        long value = 0;
+        for (String octet : octets) value = value << 8 | parseNumber(octet, 255);
+        return value << 16 | port;
+    }
+
+    private static int parseNumber(String text, int max) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value >= 0 && value <= max) return value;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Expected 0 to " + max + ": " + text);
+    }
+
+    public int protocol() {
+        return protocol;
+    }
+
+    public int addressA() {
+        return addressA;
+    }
+
+    public int portA() {
+        return portA;
+    }
+
+    public int addressB() {
+        return addressB;
+    }
+
+    public int portB() {
+        return portB;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FlowKey)) return false;
+        FlowKey other = (FlowKey) o;
+        return protocol == other.protocol && addressA == other.addressA && portA == other.portA
+                && addressB == other.addressB && portB == other.portB;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = protocol;
+        hash = 31 * hash + addressA;
+        hash = 31 * hash + portA;
+        hash = 31 * hash + addressB;
+        return 31 * hash + portB;
+    }
+
+    @Override
+    public String toString() {
+        String name = protocol == PacketView.PROTOCOL_TCP ? "tcp" : protocol == PacketView.PROTOCOL_UDP ? "udp"
+                : protocol == PROTOCOL_ICMP ? "icmp" : String.valueOf(protocol);
+        return name + " " + PacketView.formatAddress(addressA) + ":" + portA + " <-> " + PacketView.formatAddress(addressB) + ":" + portB;
+    }
+}
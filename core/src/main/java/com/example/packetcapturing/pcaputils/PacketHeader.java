@@ -1,5 +1,7 @@
 package com.example.packetcapturing.pcaputils;
 
+import java.nio.ByteBuffer;
+
 public class PacketHeader {
     public long ts_sec;         /* timestamp seconds */
     public long ts_usec;        /* timestamp microseconds */
@@ -40,5 +42,18 @@ public class PacketHeader {
         return arr;
     }
 
+    public void writeToBuffer(ByteBuffer buffer) {
+        putInt(buffer, ts_sec);
+        putInt(buffer, ts_usec);
+        putInt(buffer, incl_len);
+        putInt(buffer, orig_len);
+    }
 
+    // Little-endian regardless of the buffer's byte order, same as getBytes()
+    private static void putInt(ByteBuffer buffer, long value) {
+        buffer.put((byte) value);
+        buffer.put((byte) (value >>> 8));
+        buffer.put((byte) (value >>> 16));
+        buffer.put((byte) (value >>> 24));
+    }
 }
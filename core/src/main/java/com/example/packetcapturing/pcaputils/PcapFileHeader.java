@@ -9,9 +9,19 @@ public class PcapFileHeader {
     public short minorVersion = Short.valueOf("0400", 16);
     public int thiszone = 0;
     public int sigfigs = 0;
-    public long snaplen = Long.valueOf("0000FFFF", 16);
+    public long snaplen = 65535; // Written little-endian, unlike the pre-swapped fields above
     public long network = Long.valueOf("01000000", 16);
 
+    public PcapFileHeader() {
+    }
+
+    /**
+     * snaplen is the most bytes any record in the file holds, link layer header included.
+     */
+    public PcapFileHeader(long snaplen) {
+        this.snaplen = snaplen;
+    }
+
     public byte[] getBytes() {
         byte[] byteArr = new byte[24];
         byteArr[0] = (byte) (magicNumber >>> 24);
@@ -25,10 +35,10 @@ public class PcapFileHeader {
         for (int i = 8; i < 16; ++i) {
             byteArr[i] = 0;
         }
-        byteArr[16] = (byte) (snaplen >>> 24);
-        byteArr[17] = (byte) (snaplen >>> 16);
-        byteArr[18] = (byte) (snaplen >>> 8);
-        byteArr[19] = (byte) snaplen;
+        byteArr[16] = (byte) snaplen;
+        byteArr[17] = (byte) (snaplen >>> 8);
+        byteArr[18] = (byte) (snaplen >>> 16);
+        byteArr[19] = (byte) (snaplen >>> 24);
 
         byteArr[20] = (byte) (network >>> 24);
         byteArr[21] = (byte) (network >>> 16);
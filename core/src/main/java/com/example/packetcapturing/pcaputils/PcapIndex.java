@@ -0,0 +1,306 @@
+package com.example.packetcapturing.pcaputils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PcapReader}'s index of a capture file: the file's sections, the record offsets and
+ * timestamps of each IPv4 flow sorted by time, and for each time bucket the byte range holding
+ * its records. It is saved next to the capture, tagged with the capture's length and
+ * modification time so a capture that changed since is indexed again.
+ */
+final class PcapIndex {
+    private static final int MAGIC = 0x50494458; // "PIDX"
+    private static final int VERSION = 1;
+    private static final long MIN_BUCKET_NANOS = 1000000000L;
+    // Bounds the bucket table when timestamps span years, e.g. a clock set wrong mid-capture
+    private static final int MAX_BUCKETS = 1 << 20;
+
+    final long sourceLength;
+    final long sourceModified;
+    final List<PcapReader.Section> sections;
+    final int recordCount;
+    final long firstTimestampNanos;
+    final long lastTimestampNanos;
+    final long bucketNanos;
+    // Offset of the first byte of each bucket's first record and past its last one
+    final long[] bucketStarts;
+    final long[] bucketEnds;
+    final FlowKey[] flows;
+    // Flow i's records are entries flowStarts[i] to flowStarts[i + 1] - 1
+    final int[] flowStarts;
+    final long[] recordOffsets;
+    final long[] recordTimestamps;
+    private final Map<FlowKey, Integer> flowIds = new HashMap<>();
+
+    private PcapIndex(long sourceLength, long sourceModified, List<PcapReader.Section> sections, int recordCount,
+                      long firstTimestampNanos, long lastTimestampNanos, long bucketNanos, long[] bucketStarts, long[] bucketEnds,
+                      FlowKey[] flows, int[] flowStarts, long[] recordOffsets, long[] recordTimestamps) {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.sections = sections;
+        this.recordCount = recordCount;
+        this.firstTimestampNanos = firstTimestampNanos;
+        this.lastTimestampNanos = lastTimestampNanos;
+        this.bucketNanos = bucketNanos;
+        this.bucketStarts = bucketStarts;
+        this.bucketEnds = bucketEnds;
+        this.flows = flows;
+        this.flowStarts = flowStarts;
+        this.recordOffsets = recordOffsets;
+        this.recordTimestamps = recordTimestamps;
+        for (int i = 0; i < flows.length; i++) flowIds.put(flows[i], i);
+    }
+
+    /**
+     * Flow id of the key, or -1 if the capture has no such flow.
+     */
+    int flowId(FlowKey flow) {
+        Integer id = flowIds.get(flow);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * First entry of the flow at or after the time, binary searched.
+     */
+    int firstEntry(int flowId, long timestampNanos) {
+        int low = flowStarts[flowId];
+        int high = flowStarts[flowId + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (recordTimestamps[middle] < timestampNanos) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    int bucket(long timestampNanos) {
+        if (timestampNanos <= firstTimestampNanos) return 0;
+        return (int) Math.min((timestampNanos - firstTimestampNanos) / bucketNanos, bucketStarts.length - 1);
+    }
+
+    void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeInt(sections.size());
+            for (PcapReader.Section section : sections) {
+                out.writeLong(section.offset);
+                out.writeBoolean(section.order == ByteOrder.BIG_ENDIAN);
+                out.writeInt(section.linkTypes.length);
+                for (int i = 0; i < section.linkTypes.length; i++) {
+                    out.writeInt(section.linkTypes[i]);
+                    out.writeByte(section.timestampResolutions[i]);
+                }
+            }
+            out.writeInt(recordCount);
+            out.writeLong(firstTimestampNanos);
+            out.writeLong(lastTimestampNanos);
+            out.writeLong(bucketNanos);
+            out.writeInt(bucketStarts.length);
+            for (long start : bucketStarts) out.writeLong(start);
+            for (long end : bucketEnds) out.writeLong(end);
+            out.writeInt(flows.length);
+            for (int i = 0; i < flows.length; i++) {
+                FlowKey flow = flows[i];
+                out.writeByte(flow.protocol());
+                out.writeInt(flow.addressA());
+                out.writeShort(flow.portA());
+                out.writeInt(flow.addressB());
+                out.writeShort(flow.portB());
+                out.writeInt(flowStarts[i + 1] - flowStarts[i]);
+            }
+            for (long offset : recordOffsets) out.writeLong(offset);
+            for (long timestamp : recordTimestamps) out.writeLong(timestamp);
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Could not rename " + temporary);
+        }
+    }
+
+    /**
+     * Loads an index saved for the capture as it is now, or returns null if there is none, it
+     * is stale or unreadable.
+     */
+    static PcapIndex load(File file, long sourceLength, long sourceModified) throws IOException {
+        if (!file.isFile()) return null;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != sourceLength || buffer.getLong() != sourceModified) {
+                return null;
+            }
+            int sectionCount = buffer.getInt();
+            List<PcapReader.Section> sections = new ArrayList<>(sectionCount);
+            for (int i = 0; i < sectionCount; i++) {
+                PcapReader.Section section = new PcapReader.Section(buffer.getLong(), buffer.get() != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                int interfaceCount = buffer.getInt();
+                for (int j = 0; j < interfaceCount; j++) section.addInterface(buffer.getInt(), buffer.get());
+                sections.add(section);
+            }
+            int recordCount = buffer.getInt();
+            long firstTimestampNanos = buffer.getLong();
+            long lastTimestampNanos = buffer.getLong();
+            long bucketNanos = buffer.getLong();
+            long[] bucketStarts = getLongs(buffer, buffer.getInt());
+            long[] bucketEnds = getLongs(buffer, bucketStarts.length);
+            FlowKey[] flows = new FlowKey[buffer.getInt()];
+            int[] flowStarts = new int[flows.length + 1];
+            for (int i = 0; i < flows.length; i++) {
+                int protocol = buffer.get() & 0xFF;
+                int addressA = buffer.getInt();
+                int portA = buffer.getShort() & 0xFFFF;
+                int addressB = buffer.getInt();
+                int portB = buffer.getShort() & 0xFFFF;
+                flows[i] = FlowKey.of(protocol, addressA, portA, addressB, portB);
+                flowStarts[i + 1] = flowStarts[i] + buffer.getInt();
+            }
+            long[] recordOffsets = getLongs(buffer, flowStarts[flows.length]);
+            long[] recordTimestamps = getLongs(buffer, recordOffsets.length);
+            return new PcapIndex(sourceLength, sourceModified, sections, recordCount, firstTimestampNanos, lastTimestampNanos,
+                    bucketNanos, bucketStarts, bucketEnds, flows, flowStarts, recordOffsets, recordTimestamps);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static long[] getLongs(ByteBuffer buffer, int count) {
+        if (count < 0 || count > buffer.remaining() / 8) throw new BufferUnderflowException();
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    /**
+     * Collects records during PcapReader's pass over the capture.
+     */
+    static final class Builder {
+        private final Map<FlowKey, Integer> flowIds = new HashMap<>();
+        private final List<FlowKey> flows = new ArrayList<>();
+        private long[] offsets = new long[1024];
+        private long[] timestamps = new long[1024];
+        private int[] sizes = new int[1024];
+        private int[] recordFlows = new int[1024];
+        private int count;
+
+        /**
+         * flow is null for records that are not IPv4, which are only found by time.
+         */
+        void add(long offset, int size, long timestampNanos, FlowKey flow) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                sizes = Arrays.copyOf(sizes, count * 2);
+                recordFlows = Arrays.copyOf(recordFlows, count * 2);
+            }
+            int flowId = -1;
+            if (flow != null) {
+                Integer id = flowIds.get(flow);
+                if (id == null) {
+                    id = flows.size();
+                    flowIds.put(flow, id);
+                    flows.add(flow);
+                }
+                flowId = id;
+            }
+            offsets[count] = offset;
+            timestamps[count] = timestampNanos;
+            sizes[count] = size;
+            recordFlows[count] = flowId;
+            count++;
+        }
+
+        PcapIndex build(long sourceLength, long sourceModified, List<PcapReader.Section> sections) {
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                first = Math.min(first, timestamps[i]);
+                last = Math.max(last, timestamps[i]);
+            }
+            long bucketNanos = MIN_BUCKET_NANOS;
+            int bucketCount = 0;
+            if (count > 0) {
+                long span = last - first;
+                bucketNanos = Math.max(MIN_BUCKET_NANOS, span / MAX_BUCKETS + 1);
+                bucketCount = (int) (span / bucketNanos) + 1;
+            } else {
+                first = last = 0;
+            }
+            long[] bucketStarts = new long[bucketCount];
+            long[] bucketEnds = new long[bucketCount];
+            Arrays.fill(bucketStarts, Long.MAX_VALUE);
+            for (int i = 0; i < count; i++) {
+                int bucket = (int) ((timestamps[i] - first) / bucketNanos);
+                bucketStarts[bucket] = Math.min(bucketStarts[bucket], offsets[i]);
+                bucketEnds[bucket] = Math.max(bucketEnds[bucket], offsets[i] + sizes[i]);
+            }
+
+            // Group records by flow, keeping file order within each
+            int[] flowStarts = new int[flows.size() + 1];
+            for (int i = 0; i < count; i++) {
+                if (recordFlows[i] >= 0) flowStarts[recordFlows[i] + 1]++;
+            }
+            for (int i = 0; i < flows.size(); i++) flowStarts[i + 1] += flowStarts[i];
+            int[] next = Arrays.copyOf(flowStarts, flows.size());
+            long[] recordOffsets = new long[flowStarts[flows.size()]];
+            long[] recordTimestamps = new long[recordOffsets.length];
+            for (int i = 0; i < count; i++) {
+                int flow = recordFlows[i];
+                if (flow < 0) continue;
+                int entry = next[flow]++;
+                recordOffsets[entry] = offsets[i];
+                recordTimestamps[entry] = timestamps[i];
+            }
+            for (int i = 0; i < flows.size(); i++) sortByTime(recordOffsets, recordTimestamps, flowStarts[i], flowStarts[i + 1]);
+
+            return new PcapIndex(sourceLength, sourceModified, sections, count, first, last, bucketNanos, bucketStarts, bucketEnds,
+                    flows.toArray(new FlowKey[0]), flowStarts, recordOffsets, recordTimestamps);
+        }
+
+        /**
+         * Insertion sort, as captures are written in close to time order: packets captured
+         * by different threads are at most a few out of place.
+         */
+        private static void sortByTime(long[] offsets, long[] timestamps, int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                long timestamp = timestamps[i];
+                if (timestamp >= timestamps[i - 1]) continue;
+                long offset = offsets[i];
+                int j = i - 1;
+                while (j >= from && timestamps[j] > timestamp) {
+                    timestamps[j + 1] = timestamps[j];
+                    offsets[j + 1] = offsets[j];
+                    j--;
+                }
+                timestamps[j + 1] = timestamp;
+                offsets[j + 1] = offset;
+            }
+        }
+    }
+}
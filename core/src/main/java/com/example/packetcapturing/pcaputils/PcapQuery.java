@@ -0,0 +1,73 @@
+package com.example.packetcapturing.pcaputils;
+
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.net.PacketView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Command line front end to {@link PcapReader}, for captures pulled off a device:
+ *
+ * <pre>
+ * PcapQuery capture                        flows with their record counts
+ * PcapQuery capture flow|all [from [to]]   records, times in seconds since the epoch
+ * </pre>
+ *
+ * A flow is given as listed, e.g. "tcp 10.0.0.2:40000 93.184.216.34:443".
+ */
+public final class PcapQuery {
+    private PcapQuery() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("Usage: PcapQuery capture [flow|all [from [to]]]");
+            System.exit(2);
+        }
+        PrintStream out = System.out;
+        PcapReader reader = PcapReader.open(new File(args[0]));
+        try {
+            if (args.length == 1) {
+                out.println(reader.recordCount() + " records, " + formatTime(reader.firstTimestampNanos())
+                        + " to " + formatTime(reader.lastTimestampNanos()));
+                for (FlowKey flow : reader.flows()) out.println(reader.recordCount(flow) + "\t" + flow);
+                return;
+            }
+            FlowKey flow = args[1].equals("all") ? null : FlowKey.parse(args[1]);
+            long from = args.length > 2 ? parseTime(args[2]) : Long.MIN_VALUE;
+            long to = args.length > 3 ? parseTime(args[3]) : Long.MAX_VALUE;
+            List<PcapReader.Record> records = reader.query(flow, from, to);
+            for (PcapReader.Record record : records) out.println(format(record));
+            out.println(records.size() + " records");
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String format(PcapReader.Record record) {
+        StringBuilder line = new StringBuilder(formatTime(record.timestampNanos()));
+        line.append(record.direction() == RawPacket.DIRECTION_INBOUND ? " in  "
+                : record.direction() == RawPacket.DIRECTION_OUTBOUND ? " out " : " ");
+        FlowKey flow = record.flow();
+        if (flow != null) {
+            PacketView view = new PacketView().wrap(record.packet());
+            boolean ports = flow.portA() != 0 || flow.portB() != 0;
+            line.append(flow.toString(), 0, flow.toString().indexOf(' ') + 1)
+                    .append(PacketView.formatAddress(view.sourceAddress())).append(ports ? ":" + view.sourcePort() : "").append(" > ")
+                    .append(PacketView.formatAddress(view.destinationAddress())).append(ports ? ":" + view.destinationPort() : "").append(' ');
+        }
+        return line.append(record.capturedLength()).append('/').append(record.originalLength()).toString();
+    }
+
+    private static String formatTime(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).toPlainString();
+    }
+
+    private static long parseTime(String seconds) {
+        return new BigDecimal(seconds).movePointRight(9).longValue();
+    }
+}
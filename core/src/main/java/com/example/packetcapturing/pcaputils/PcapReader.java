@@ -0,0 +1,464 @@
+package com.example.packetcapturing.pcaputils;
+
+import com.example.packetcapturing.platform.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads classic PCAP and pcapng capture files through memory mappings, on the device or on a
+ * workstation. Opening a capture loads its index from the side file next to it (capture +
+ * ".idx"), or builds it in one pass over the capture and saves it, so reopening a multi-GB
+ * capture only reads the index. A query then touches just the pages holding the records it
+ * returns: those of one flow are found by binary search on time, those of all flows through
+ * the byte range of the time buckets covering the query.
+ *
+ * Records are views into the mappings, valid until the reader is closed. The reader is safe to
+ * query from several threads. gzip compressed captures have to be decompressed first.
+ */
+public final class PcapReader implements Closeable {
+    private static final String TAG = PcapReader.class.getSimpleName();
+    // Files are mapped in segments, each also covering the start of the next one, so that a
+    // record is always whole in the segment it starts in
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private static final int PCAP_MAGIC_MICROS = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NANOS = 0xA1B23C4D;
+    private static final int PCAP_FILE_HEADER_SIZE = 24;
+    private static final int PCAPNG_SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+    private static final int PCAPNG_INTERFACE_DESCRIPTION_BLOCK = 1;
+    private static final int PCAPNG_ENHANCED_PACKET_BLOCK = 6;
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final int PCAPNG_ENHANCED_PACKET_HEADER_SIZE = 28;
+    private static final int GZIP_MAGIC = 0x1F8B;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_IPV4 = 228;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final long length;
+    private final boolean pcapng;
+    // The mapped segments in each byte order; packet contents are always read big-endian
+    private final ByteBuffer[] littleEndianSegments;
+    private final ByteBuffer[] bigEndianSegments;
+    private final PcapIndex index;
+
+    private PcapReader(File file) throws IOException {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            length = randomAccessFile.length();
+            if (length < 4) throw new IOException("Not a capture file: " + file);
+            FileChannel channel = randomAccessFile.getChannel();
+            int segmentCount = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            littleEndianSegments = new ByteBuffer[segmentCount];
+            bigEndianSegments = new ByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * SEGMENT_SIZE;
+                ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, SEGMENT_SIZE + MAX_RECORD_SIZE));
+                bigEndianSegments[i] = segment.duplicate().order(ByteOrder.BIG_ENDIAN);
+                littleEndianSegments[i] = segment.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            int magic = bigEndianSegments[0].getInt(0);
+            if (magic >>> 16 == GZIP_MAGIC) throw new IOException("Compressed capture, decompress it first: " + file);
+            pcapng = magic == PCAPNG_SECTION_HEADER_BLOCK;
+
+            File indexFile = new File(file.getPath() + ".idx");
+            PcapIndex loaded = PcapIndex.load(indexFile, length, file.lastModified());
+            if (loaded == null) {
+                long start = System.nanoTime();
+                loaded = pcapng ? scanPcapng() : scanPcap(magic);
+                Log.i(TAG, "Indexed " + loaded.recordCount + " records, " + loaded.flows.length + " flows of " + file
+                        + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+                try {
+                    loaded.save(indexFile);
+                } catch (IOException e) {
+                    // A read-only directory only costs the next open a scan
+                    Log.w(TAG, "Could not save index " + indexFile, e);
+                }
+            }
+            index = loaded;
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public static PcapReader open(File file) throws IOException {
+        return new PcapReader(file);
+    }
+
+    public File file() {
+        return file;
+    }
+
+    /**
+     * Records of any kind in the capture, including those not in any flow.
+     */
+    public int recordCount() {
+        return index.recordCount;
+    }
+
+    public long firstTimestampNanos() {
+        return index.firstTimestampNanos;
+    }
+
+    public long lastTimestampNanos() {
+        return index.lastTimestampNanos;
+    }
+
+    /**
+     * Every IPv4 flow in the capture, in order of first appearance.
+     */
+    public List<FlowKey> flows() {
+        return Collections.unmodifiableList(Arrays.asList(index.flows));
+    }
+
+    public int recordCount(FlowKey flow) {
+        int flowId = index.flowId(flow);
+        return flowId >= 0 ? index.flowStarts[flowId + 1] - index.flowStarts[flowId] : 0;
+    }
+
+    /**
+     * Records of the flow, or of every record if it is null, with a timestamp in
+     * [fromNanos, toNanos), in time order for a flow and in file order otherwise.
+     */
+    public List<Record> query(FlowKey flow, long fromNanos, long toNanos) {
+        List<Record> records = new ArrayList<>();
+        if (index.recordCount == 0 || fromNanos >= toNanos) return records;
+        if (flow != null) {
+            int flowId = index.flowId(flow);
+            if (flowId < 0) return records;
+            int end = index.flowStarts[flowId + 1];
+            for (int i = index.firstEntry(flowId, fromNanos); i < end && index.recordTimestamps[i] < toNanos; i++) {
+                records.add(read(index.recordOffsets[i]));
+            }
+            return records;
+        }
+
+        long start = Long.MAX_VALUE;
+        long end = 0;
+        int lastBucket = index.bucket(toNanos - 1);
+        for (int bucket = index.bucket(fromNanos); bucket <= lastBucket; bucket++) {
+            start = Math.min(start, index.bucketStarts[bucket]);
+            end = Math.max(end, index.bucketEnds[bucket]);
+        }
+        // Other blocks and records outside the time range may be interleaved, skip them
+        for (long offset = start; offset < end; offset += recordSize(offset)) {
+            Record record = read(offset);
+            if (record != null && record.timestampNanos >= fromNanos && record.timestampNanos < toNanos) records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * The record at a file offset, or null if the block there holds no packet.
+     */
+    public Record read(long offset) {
+        Section section = section(offset);
+        ByteBuffer segment = segment(offset, section.order);
+        int position = (int) (offset % SEGMENT_SIZE);
+        int capturedLength;
+        int originalLength;
+        long timestampNanos;
+        int dataPosition;
+        int interfaceId = 0;
+        int direction = 0;
+        if (pcapng) {
+            if (segment.getInt(position) != PCAPNG_ENHANCED_PACKET_BLOCK) return null;
+            int blockLength = segment.getInt(position + 4);
+            interfaceId = segment.getInt(position + 8);
+            long timestamp = (segment.getInt(position + 12) & 0xFFFFFFFFL) << 32 | (segment.getInt(position + 16) & 0xFFFFFFFFL);
+            timestampNanos = toNanos(timestamp, section.timestampResolutions[interfaceId]);
+            capturedLength = segment.getInt(position + 20);
+            originalLength = segment.getInt(position + 24);
+            dataPosition = position + PCAPNG_ENHANCED_PACKET_HEADER_SIZE;
+            direction = enhancedPacketDirection(segment, dataPosition + pad(capturedLength), position + blockLength - 4);
+        } else {
+            long seconds = segment.getInt(position) & 0xFFFFFFFFL;
+            long fraction = segment.getInt(position + 4) & 0xFFFFFFFFL;
+            timestampNanos = seconds * 1000000000L + toNanos(fraction, section.timestampResolutions[0]);
+            capturedLength = segment.getInt(position + 8);
+            originalLength = segment.getInt(position + 12);
+            dataPosition = position + PcapRecord.PACKET_HEADER_SIZE;
+        }
+
+        ByteBuffer data = bigEndianSegments[(int) (offset / SEGMENT_SIZE)].duplicate();
+        data.limit(dataPosition + capturedLength).position(dataPosition);
+        return new Record(offset, timestampNanos, originalLength, direction, section.linkTypes[interfaceId], data.slice());
+    }
+
+    /**
+     * Releases the file. The mappings go when they are garbage collected, Java having no
+     * portable way to unmap them.
+     */
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    private PcapIndex scanPcap(int magic) throws IOException {
+        ByteOrder order;
+        if (magic == PCAP_MAGIC_MICROS || magic == PCAP_MAGIC_NANOS) order = ByteOrder.BIG_ENDIAN;
+        else if (Integer.reverseBytes(magic) == PCAP_MAGIC_MICROS || Integer.reverseBytes(magic) == PCAP_MAGIC_NANOS) order = ByteOrder.LITTLE_ENDIAN;
+        else throw new IOException("Not a capture file: " + file);
+        if (length < PCAP_FILE_HEADER_SIZE) throw new IOException("Truncated file header: " + file);
+        boolean nanos = magic == PCAP_MAGIC_NANOS || Integer.reverseBytes(magic) == PCAP_MAGIC_NANOS;
+        ByteBuffer header = segment(0, order);
+        Section section = new Section(0, order);
+        section.addInterface(header.getInt(20) & 0xFFFF, (byte) (nanos ? 9 : 6));
+        List<Section> sections = Collections.singletonList(section);
+
+        PcapIndex.Builder builder = new PcapIndex.Builder();
+        long offset = PCAP_FILE_HEADER_SIZE;
+        while (offset + PcapRecord.PACKET_HEADER_SIZE <= length) {
+            ByteBuffer segment = segment(offset, order);
+            int position = (int) (offset % SEGMENT_SIZE);
+            int capturedLength = segment.getInt(position + 8);
+            int size = PcapRecord.PACKET_HEADER_SIZE + capturedLength;
+            if (capturedLength < 0 || size > MAX_RECORD_SIZE) throw new IOException("Corrupt record at " + offset + ": " + file);
+            if (offset + size > length) break; // Cut short, e.g. still being written
+            long timestampNanos = (segment.getInt(position) & 0xFFFFFFFFL) * 1000000000L
+                    + toNanos(segment.getInt(position + 4) & 0xFFFFFFFFL, section.timestampResolutions[0]);
+            builder.add(offset, size, timestampNanos, flowKey(offset + PcapRecord.PACKET_HEADER_SIZE, capturedLength, section.linkTypes[0]));
+            offset += size;
+        }
+        return builder.build(length, file.lastModified(), sections);
+    }
+
+    private PcapIndex scanPcapng() throws IOException {
+        List<Section> sections = new ArrayList<>();
+        Section section = null;
+        PcapIndex.Builder builder = new PcapIndex.Builder();
+        long offset = 0;
+        while (offset + 12 <= length) {
+            // The block type is read the same in either byte order for a Section Header Block
+            int position = (int) (offset % SEGMENT_SIZE);
+            if (littleEndianSegments[(int) (offset / SEGMENT_SIZE)].getInt(position) == PCAPNG_SECTION_HEADER_BLOCK) {
+                int byteOrderMagic = littleEndianSegments[(int) (offset / SEGMENT_SIZE)].getInt(position + 8);
+                if (byteOrderMagic == PCAPNG_BYTE_ORDER_MAGIC) section = new Section(offset, ByteOrder.LITTLE_ENDIAN);
+                else if (Integer.reverseBytes(byteOrderMagic) == PCAPNG_BYTE_ORDER_MAGIC) section = new Section(offset, ByteOrder.BIG_ENDIAN);
+                else throw new IOException("Corrupt section header at " + offset + ": " + file);
+                sections.add(section);
+            }
+            if (section == null) throw new IOException("Not a capture file: " + file);
+
+            ByteBuffer segment = segment(offset, section.order);
+            int type = segment.getInt(position);
+            int blockLength = segment.getInt(position + 4);
+            if (blockLength < 12 || blockLength % 4 != 0 || blockLength > MAX_RECORD_SIZE) {
+                throw new IOException("Corrupt block at " + offset + ": " + file);
+            }
+            if (offset + blockLength > length) break; // Cut short, e.g. still being written
+
+            if (type == PCAPNG_INTERFACE_DESCRIPTION_BLOCK) {
+                section.addInterface(segment.getShort(position + 8) & 0xFFFF, interfaceTimestampResolution(segment, position + 16, position + blockLength - 4));
+            } else if (type == PCAPNG_ENHANCED_PACKET_BLOCK) {
+                int interfaceId = segment.getInt(position + 8);
+                if (interfaceId < 0 || interfaceId >= section.linkTypes.length) {
+                    throw new IOException("Unknown interface " + interfaceId + " at " + offset + ": " + file);
+                }
+                long timestamp = (segment.getInt(position + 12) & 0xFFFFFFFFL) << 32 | (segment.getInt(position + 16) & 0xFFFFFFFFL);
+                int capturedLength = segment.getInt(position + 20);
+                builder.add(offset, blockLength, toNanos(timestamp, section.timestampResolutions[interfaceId]),
+                        flowKey(offset + PCAPNG_ENHANCED_PACKET_HEADER_SIZE, capturedLength, section.linkTypes[interfaceId]));
+            }
+            offset += blockLength;
+        }
+        return builder.build(length, file.lastModified(), sections);
+    }
+
+    /**
+     * if_tsresol of an Interface Description Block's options, microseconds by default.
+     */
+    private static byte interfaceTimestampResolution(ByteBuffer segment, int position, int end) {
+        while (position + 4 <= end) {
+            int code = segment.getShort(position) & 0xFFFF;
+            int length = segment.getShort(position + 2) & 0xFFFF;
+            if (code == 0) break;
+            if (code == 9 && length == 1) return segment.get(position + 4);
+            position += 4 + pad(length);
+        }
+        return 6;
+    }
+
+    /**
+     * Inbound or outbound from an Enhanced Packet Block's epb_flags, 0 if it has none.
+     */
+    private static int enhancedPacketDirection(ByteBuffer segment, int position, int end) {
+        while (position + 4 <= end) {
+            int code = segment.getShort(position) & 0xFFFF;
+            int length = segment.getShort(position + 2) & 0xFFFF;
+            if (code == 0) break;
+            if (code == 2 && length == 4) return segment.getInt(position + 4) & 0x3;
+            position += 4 + pad(length);
+        }
+        return 0;
+    }
+
+    /**
+     * A timestamp in units of 10^-n seconds, or 2^-n with the top bit set, in nanoseconds.
+     */
+    private static long toNanos(long timestamp, byte resolution) {
+        int exponent = resolution & 0x7F;
+        if ((resolution & 0x80) != 0) {
+            long seconds = timestamp >>> exponent;
+            long fraction = timestamp & ((1L << exponent) - 1);
+            return seconds * 1000000000L + (exponent <= 32 ? fraction * 1000000000L >>> exponent : (long) (fraction * 1e9 / Math.pow(2, exponent)));
+        }
+        if (exponent <= 9) {
+            for (int i = exponent; i < 9; i++) timestamp *= 10;
+            return timestamp;
+        }
+        for (int i = 9; i < exponent; i++) timestamp /= 10;
+        return timestamp;
+    }
+
+    private FlowKey flowKey(long dataOffset, int capturedLength, int linkType) {
+        ByteBuffer segment = bigEndianSegments[(int) (dataOffset / SEGMENT_SIZE)];
+        int position = (int) (dataOffset % SEGMENT_SIZE);
+        int ipOffset = ipOffset(segment, position, capturedLength, linkType);
+        return ipOffset >= 0 ? FlowKey.of(segment, position + ipOffset, capturedLength - ipOffset) : null;
+    }
+
+    /**
+     * Where the IP header starts in a packet of the link type, or -1 if it is not IP.
+     */
+    static int ipOffset(ByteBuffer buffer, int position, int capturedLength, int linkType) {
+        if (linkType == PcapngWriter.LINKTYPE_RAW || linkType == LINKTYPE_IPV4) return 0;
+        if (linkType == LINKTYPE_ETHERNET && capturedLength >= PcapRecord.LINK_LAYER_HEADER_SIZE
+                && buffer.getShort(position + 12) == 0x0800) {
+            return PcapRecord.LINK_LAYER_HEADER_SIZE;
+        }
+        return -1;
+    }
+
+    private int recordSize(long offset) {
+        Section section = section(offset);
+        ByteBuffer segment = segment(offset, section.order);
+        int position = (int) (offset % SEGMENT_SIZE);
+        return pcapng ? segment.getInt(position + 4) : PcapRecord.PACKET_HEADER_SIZE + segment.getInt(position + 8);
+    }
+
+    private ByteBuffer segment(long offset, ByteOrder order) {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        return order == ByteOrder.BIG_ENDIAN ? bigEndianSegments[segment] : littleEndianSegments[segment];
+    }
+
+    private Section section(long offset) {
+        List<Section> sections = index.sections;
+        int low = 0;
+        int high = sections.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (sections.get(middle).offset <= offset) low = middle;
+            else high = middle - 1;
+        }
+        return sections.get(low);
+    }
+
+    private static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+
+    /**
+     * A pcapng section, or the whole of a classic PCAP file: its byte order and the link type
+     * and timestamp resolution of each of its interfaces.
+     */
+    static final class Section {
+        final long offset;
+        final ByteOrder order;
+        int[] linkTypes = new int[0];
+        byte[] timestampResolutions = new byte[0];
+
+        Section(long offset, ByteOrder order) {
+            this.offset = offset;
+            this.order = order;
+        }
+
+        void addInterface(int linkType, byte timestampResolution) {
+            linkTypes = Arrays.copyOf(linkTypes, linkTypes.length + 1);
+            linkTypes[linkTypes.length - 1] = linkType;
+            timestampResolutions = Arrays.copyOf(timestampResolutions, timestampResolutions.length + 1);
+            timestampResolutions[timestampResolutions.length - 1] = timestampResolution;
+        }
+    }
+
+    /**
+     * A captured packet: its captured bytes as stored, link layer header included, with the
+     * packet's real length and its direction, {@link com.example.packetcapturing.model.RawPacket}'s
+     * inbound or outbound, or 0 when the file does not say.
+     */
+    public static final class Record {
+        private final long offset;
+        private final long timestampNanos;
+        private final int originalLength;
+        private final int direction;
+        private final int linkType;
+        private final ByteBuffer data;
+
+        Record(long offset, long timestampNanos, int originalLength, int direction, int linkType, ByteBuffer data) {
+            this.offset = offset;
+            this.timestampNanos = timestampNanos;
+            this.originalLength = originalLength;
+            this.direction = direction;
+            this.linkType = linkType;
+            this.data = data;
+        }
+
+        public long offset() {
+            return offset;
+        }
+
+        public long timestampNanos() {
+            return timestampNanos;
+        }
+
+        public int capturedLength() {
+            return data.remaining();
+        }
+
+        public int originalLength() {
+            return originalLength;
+        }
+
+        public int direction() {
+            return direction;
+        }
+
+        public int linkType() {
+            return linkType;
+        }
+
+        public ByteBuffer data() {
+            return data.duplicate();
+        }
+
+        /**
+         * The captured bytes from the IP header on, or null if the record is not IP.
+         */
+        public ByteBuffer packet() {
+            int ipOffset = ipOffset(data, 0, data.remaining(), linkType);
+            if (ipOffset < 0) return null;
+            ByteBuffer packet = data.duplicate();
+            packet.position(ipOffset);
+            return packet.slice();
+        }
+
+        public FlowKey flow() {
+            int ipOffset = ipOffset(data, 0, data.remaining(), linkType);
+            return ipOffset >= 0 ? FlowKey.of(data, ipOffset, data.remaining() - ipOffset) : null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.packetcapturing.pcaputils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+public class PcapRecord {
+    public static final int PACKET_HEADER_SIZE = 16;
+    public static final int LINK_LAYER_HEADER_SIZE = 14;
+    private static final byte[] LINK_LAYER_HEADER = {9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 8, 0};
+
+    byte[] ip4Header;
+    byte[] protocolHeader;
+    byte[] payload;
+    private PacketHeader packetHeader;
+
+    public PcapRecord(long time, byte[] payload, byte[] ip4Header, byte[] protocolHeader) {
+        this.ip4Header = ip4Header;
+        this.payload = payload;
+        long ts_sec = time / 1000;
+        long ts_usec = (time % 1000) * 1000;
+        long incl_len = payload.length + LINK_LAYER_HEADER_SIZE + ip4Header.length + protocolHeader.length;
+        long orig_len = incl_len;
+        packetHeader =  new PacketHeader(ts_sec, ts_usec, incl_len, orig_len);
+        this.protocolHeader = protocolHeader;
+
+    }
+
+    public byte[] linkLayerHeader() {
+        return LINK_LAYER_HEADER.clone();
+    }
+
+    /**
+     * Bytes this record takes in the file, including its packet header.
+     */
+    public int size() {
+        return (int) (PACKET_HEADER_SIZE + packetHeader.incl_len);
+    }
+
+    public void writeToStream(OutputStream os) throws IOException {
+
+        os.write(packetHeader.getBytes());
+        os.write(LINK_LAYER_HEADER);
+        os.write(ip4Header);
+        os.write(protocolHeader);
+        os.write(payload);
+
+    }
+
+    /**
+     * Writes the packet header and link layer header of a record whose IP packet is appended
+     * by the caller: capturedLength bytes of it, out of originalLength. The timestamp is in
+     * nanoseconds, kept to the format's microseconds.
+     */
+    public static void writeRecordHeader(ByteBuffer buffer, long timestampNanos, int capturedLength, int originalLength) {
+        long incl_len = LINK_LAYER_HEADER_SIZE + capturedLength;
+        long orig_len = LINK_LAYER_HEADER_SIZE + originalLength;
+        new PacketHeader(timestampNanos / 1000000000L, timestampNanos % 1000000000L / 1000, incl_len, orig_len).writeToBuffer(buffer);
+        buffer.put(LINK_LAYER_HEADER);
+    }
+
+    public void writeToBuffer(ByteBuffer buffer) {
+        packetHeader.writeToBuffer(buffer);
+        buffer.put(LINK_LAYER_HEADER);
+        buffer.put(ip4Header);
+        buffer.put(protocolHeader);
+        buffer.put(payload);
+    }
+}
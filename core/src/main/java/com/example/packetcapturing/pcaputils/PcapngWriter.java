@@ -0,0 +1,120 @@
+package com.example.packetcapturing.pcaputils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Writes pcapng blocks into a buffer: a Section Header Block, one Interface Description Block
+ * for the tunnel with nanosecond timestamps, and an Enhanced Packet Block per packet carrying
+ * its direction in epb_flags. Packets are raw IPv4 (LINKTYPE_RAW), without the made-up
+ * Ethernet header classic PCAP files get.
+ *
+ * Blocks are little-endian whatever the buffer's byte order, which is left unchanged.
+ */
+public final class PcapngWriter {
+    public static final int LINKTYPE_RAW = 101;
+    // Enhanced Packet Block bytes besides the packet data and its padding
+    public static final int ENHANCED_PACKET_OVERHEAD = 28 + 8 + 4 + 4;
+
+    private static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+    private static final int INTERFACE_DESCRIPTION_BLOCK = 1;
+    private static final int ENHANCED_PACKET_BLOCK = 6;
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final short OPT_ENDOFOPT = 0;
+    private static final short SHB_USERAPPL = 4;
+    private static final short IF_NAME = 2;
+    private static final short IF_TSRESOL = 9;
+    private static final short EPB_FLAGS = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PcapngWriter() {
+    }
+
+    public static void writeSectionHeader(ByteBuffer buffer, String application) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int start = beginBlock(buffer, SECTION_HEADER_BLOCK);
+        buffer.putInt(BYTE_ORDER_MAGIC).putShort((short) 1).putShort((short) 0);
+        buffer.putLong(-1); // Section length not known up front
+        putOption(buffer, SHB_USERAPPL, application.getBytes(UTF_8));
+        buffer.putShort(OPT_ENDOFOPT).putShort((short) 0);
+        endBlock(buffer, start);
+        buffer.order(order);
+    }
+
+    /**
+     * snaplen is the most bytes of a packet any block holds, 0 for no limit.
+     */
+    public static void writeInterfaceDescription(ByteBuffer buffer, String name, int snaplen) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int start = beginBlock(buffer, INTERFACE_DESCRIPTION_BLOCK);
+        buffer.putShort((short) LINKTYPE_RAW).putShort((short) 0).putInt(snaplen);
+        putOption(buffer, IF_NAME, name.getBytes(UTF_8));
+        putOption(buffer, IF_TSRESOL, new byte[]{9}); // 10^-9, nanoseconds
+        buffer.putShort(OPT_ENDOFOPT).putShort((short) 0);
+        endBlock(buffer, start);
+        buffer.order(order);
+    }
+
+    /**
+     * Writes an Enhanced Packet Block for interface 0 holding data, the captured part of a
+     * packet originalLength bytes long. direction is one of RawPacket's, which use the
+     * epb_flags values.
+     */
+    public static void writeEnhancedPacket(ByteBuffer buffer, long timestampNanos, byte[] data, int originalLength, int direction) {
+        writeEnhancedPacketHeader(buffer, timestampNanos, data.length, originalLength);
+        buffer.put(data);
+        writeEnhancedPacketTrailer(buffer, data.length, direction);
+    }
+
+    /**
+     * First half of an Enhanced Packet Block, for callers copying the packet data into the
+     * buffer themselves before {@link #writeEnhancedPacketTrailer(ByteBuffer, int, int)}.
+     */
+    public static void writeEnhancedPacketHeader(ByteBuffer buffer, long timestampNanos, int capturedLength, int originalLength) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(ENHANCED_PACKET_BLOCK).putInt(enhancedPacketSize(capturedLength));
+        buffer.putInt(0); // Interface ID
+        buffer.putInt((int) (timestampNanos >>> 32)).putInt((int) timestampNanos);
+        buffer.putInt(capturedLength).putInt(originalLength);
+        buffer.order(order);
+    }
+
+    public static void writeEnhancedPacketTrailer(ByteBuffer buffer, int capturedLength, int direction) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = capturedLength; i < pad(capturedLength); i++) buffer.put((byte) 0);
+        buffer.putShort(EPB_FLAGS).putShort((short) 4).putInt(direction);
+        buffer.putShort(OPT_ENDOFOPT).putShort((short) 0);
+        buffer.putInt(enhancedPacketSize(capturedLength));
+        buffer.order(order);
+    }
+
+    public static int enhancedPacketSize(int capturedLength) {
+        return ENHANCED_PACKET_OVERHEAD + pad(capturedLength);
+    }
+
+    private static int beginBlock(ByteBuffer buffer, int type) {
+        int start = buffer.position();
+        buffer.putInt(type).putInt(0); // Length patched by endBlock
+        return start;
+    }
+
+    private static void endBlock(ByteBuffer buffer, int start) {
+        int length = buffer.position() - start + 4;
+        buffer.putInt(start + 4, length);
+        buffer.putInt(length);
+    }
+
+    private static void putOption(ByteBuffer buffer, short code, byte[] value) {
+        buffer.putShort(code).putShort((short) value.length).put(value);
+        for (int i = value.length; i < pad(value.length); i++) buffer.put((byte) 0);
+    }
+
+    private static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.packetcapturing.platform;
+
+/**
+ * Logging for the engine, with the same calls as android.util.Log. Messages go to the
+ * {@link Logger} set by the platform, or to System.err until one is set.
+ */
+public final class Log {
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static volatile Logger logger = new StandardErrorLogger();
+
+    private Log() {
+    }
+
+    public static void setLogger(Logger logger) {
+        Log.logger = logger;
+    }
+
+    public static void d(String tag, String message) {
+        logger.log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        logger.log(INFO, tag, message, null);
+    }
+
+    public static void i(String tag, String message, Throwable throwable) {
+        logger.log(INFO, tag, message, throwable);
+    }
+
+    public static void w(String tag, String message) {
+        logger.log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable throwable) {
+        logger.log(WARN, tag, message, throwable);
+    }
+
+    public static void e(String tag, String message) {
+        logger.log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        logger.log(ERROR, tag, message, throwable);
+    }
+
+    public interface Logger {
+        /**
+         * throwable may be null.
+         */
+        void log(int priority, String tag, String message, Throwable throwable);
+    }
+
+    private static final class StandardErrorLogger implements Logger {
+        private static final String LEVELS = "??VDIWE";
+
+        @Override
+        public void log(int priority, String tag, String message, Throwable throwable) {
+            System.err.println(LEVELS.charAt(priority) + "/" + tag + ": " + message);
+            if (throwable != null) throwable.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.packetcapturing.platform;
+
+import java.net.DatagramSocket;
+import java.net.Socket;
+
+/**
+ * Keeps the proxy's own upstream sockets out of the tunnel. On Android this is VpnService, whose
+ * protect() methods have the same signatures; elsewhere there is usually nothing to do.
+ */
+public interface SocketProtector {
+    SocketProtector NONE = new SocketProtector() {
+        @Override
+        public boolean protect(Socket socket) {
+            return true;
+        }
+
+        @Override
+        public boolean protect(DatagramSocket socket) {
+            return true;
+        }
+    };
+
+    boolean protect(Socket socket);
+
+    boolean protect(DatagramSocket socket);
+}
@@ -0,0 +1,89 @@
+package com.example.packetcapturing.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ByteBufferPool under contention. acquireRelease has four threads each using their own
+ * buffers, like the TCP shards building responses. handoff acquires on one thread and releases
+ * on another, like TunnelReader and the output threads, which drains the releasing thread's
+ * magazine into the shared depot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteBufferPoolBenchmark {
+    // Buffers in flight between the handoff threads, about what the tunnel queues hold under load
+    private static final int MAX_IN_FLIGHT = 256;
+
+    @State(Scope.Benchmark)
+    public static class Sizes {
+        @Param({"128", "1500", "16384"})
+        public int size;
+
+        @TearDown
+        public void tearDown() {
+            ByteBufferPool.clear();
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Handoff {
+        final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        @TearDown
+        public void tearDown() {
+            ByteBuffer buffer;
+            while ((buffer = queue.poll()) != null) ByteBufferPool.release(buffer);
+            ByteBufferPool.clear();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ByteBuffer acquireRelease(Sizes sizes) {
+        ByteBuffer buffer = ByteBufferPool.acquire(sizes.size);
+        ByteBufferPool.release(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean acquire(Handoff handoff) {
+        if (handoff.inFlight.get() >= MAX_IN_FLIGHT) return false;
+        handoff.inFlight.incrementAndGet();
+        return handoff.queue.offer(ByteBufferPool.acquire(Packet.MTU));
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean release(Handoff handoff) {
+        ByteBuffer buffer = handoff.queue.poll();
+        if (buffer == null) return false;
+        handoff.inFlight.decrementAndGet();
+        ByteBufferPool.release(buffer);
+        return true;
+    }
+}
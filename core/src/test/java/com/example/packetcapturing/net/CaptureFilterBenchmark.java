@@ -0,0 +1,67 @@
+package com.example.packetcapturing.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rejecting a packet with a compiled {@link CaptureFilter} against the copies CaptureTap
+ * makes for every packet it keeps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureFilterBenchmark {
+    private static final int PACKETS = 256;
+
+    @Param({
+            "tcp",
+            "host 140.82.112.3",
+            "host 140.82.112.3 or host 140.82.112.4 or host 151.101.1.140 or host 142.250.74.46 or host 8.8.4.4",
+            "net 93.184.216.0/28 and tcp and not tcpflags syn",
+            "(udp and port 53) or (tcp and dst portrange 8000-8999)"})
+    public String expression;
+
+    private final PacketView packetView = new PacketView();
+    private CaptureFilter filter;
+    private ByteBuffer[] packets;
+    private int next;
+
+    @Setup
+    public void setup() {
+        filter = CaptureFilter.compile(expression);
+        packets = PacketMix.packets(PacketMix.MIX, PACKETS, 42);
+    }
+
+    @Benchmark
+    public boolean filter() {
+        return filter.matches(nextPacket());
+    }
+
+    @Benchmark
+    public int copy() {
+        // What CaptureTap does for every packet without a filter
+        PacketView view = packetView.wrap(nextPacket());
+        return view.copy(view.totalLength()).length;
+    }
+
+    private ByteBuffer nextPacket() {
+        ByteBuffer packet = packets[next];
+        next = (next + 1) & (PACKETS - 1);
+        return packet;
+    }
+}
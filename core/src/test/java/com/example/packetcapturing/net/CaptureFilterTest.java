@@ -0,0 +1,192 @@
+package com.example.packetcapturing.net;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CaptureFilterTest {
+    private static final int ICMP = 1;
+    private static final int DEVICE = address("10.0.0.2");
+    private static final int HOST_A = address("93.184.216.34");
+    private static final int HOST_B = address("140.82.112.3");
+    private static final int HOST_C = address("8.8.8.8");
+
+    @Test
+    public void blankExpressionCapturesEverything() {
+        assertNull(CaptureFilter.compile(null));
+        assertNull(CaptureFilter.compile("  "));
+    }
+
+    @Test
+    public void andBindsTighterThanOr() {
+        CaptureFilter filter = CaptureFilter.compile("tcp and port 80 or udp");
+        assertTrue(filter.matches(tcp(DEVICE, 40000, HOST_A, 80, 0)));
+        assertFalse(filter.matches(tcp(DEVICE, 40000, HOST_A, 443, 0)));
+        assertTrue(filter.matches(udp(DEVICE, 40000, HOST_C, 53)));
+
+        filter = CaptureFilter.compile("udp or tcp && port 80");
+        assertTrue(filter.matches(udp(DEVICE, 40000, HOST_C, 53)));
+        assertFalse(filter.matches(tcp(DEVICE, 40000, HOST_A, 443, 0)));
+        assertTrue(filter.matches(tcp(DEVICE, 40000, HOST_A, 80, 0)));
+
+        filter = CaptureFilter.compile("tcp and (port 80 || udp)");
+        assertFalse(filter.matches(udp(DEVICE, 40000, HOST_C, 80)));
+        assertTrue(filter.matches(tcp(HOST_A, 80, DEVICE, 40000, 0)));
+    }
+
+    @Test
+    public void notAppliesToTheWholeMergedHostList() {
+        CaptureFilter filter = CaptureFilter.compile("not (host 93.184.216.34 or host 140.82.112.3 or net 192.168.0.0/16)");
+        assertFalse(filter.matches(tcp(DEVICE, 40000, HOST_A, 443, 0)));
+        assertFalse(filter.matches(tcp(HOST_B, 443, DEVICE, 40000, 0)));
+        assertFalse(filter.matches(udp(DEVICE, 40000, address("192.168.1.1"), 53)));
+        assertTrue(filter.matches(udp(DEVICE, 40000, HOST_C, 53)));
+
+        // A double negation cancels out
+        filter = CaptureFilter.compile("! not host 8.8.8.8");
+        assertTrue(filter.matches(udp(DEVICE, 40000, HOST_C, 53)));
+        assertFalse(filter.matches(udp(DEVICE, 40000, HOST_A, 53)));
+    }
+
+    @Test
+    public void mergedAddressesKeepTheirDirection() {
+        CaptureFilter filter = CaptureFilter.compile("src host 93.184.216.34 or dst host 140.82.112.3 or host 8.8.8.8"
+                + " or dst net 172.16.0.0/12 or tcp and port 22");
+        assertTrue(filter.matches(udp(HOST_A, 53, DEVICE, 40000)));
+        assertFalse(filter.matches(udp(DEVICE, 40000, HOST_A, 53)));
+        assertTrue(filter.matches(udp(DEVICE, 40000, HOST_B, 53)));
+        assertFalse(filter.matches(udp(HOST_B, 53, DEVICE, 40000)));
+        assertTrue(filter.matches(udp(HOST_C, 53, DEVICE, 40000)));
+        assertTrue(filter.matches(udp(DEVICE, 40000, HOST_C, 53)));
+        assertTrue(filter.matches(udp(DEVICE, 40000, address("172.31.255.1"), 53)));
+        assertFalse(filter.matches(udp(address("172.31.255.1"), 53, DEVICE, 40000)));
+        assertFalse(filter.matches(udp(DEVICE, 40000, address("172.32.0.1"), 53)));
+        // The non-address alternative survives the merge
+        assertTrue(filter.matches(tcp(DEVICE, 40000, address("1.1.1.1"), 22, 0)));
+        assertFalse(filter.matches(udp(DEVICE, 40000, address("1.1.1.1"), 22)));
+    }
+
+    @Test
+    public void netPrefixLengths() {
+        CaptureFilter everything = CaptureFilter.compile("net 0.0.0.0/0");
+        assertTrue(everything.matches(udp(DEVICE, 1, HOST_A, 2)));
+        assertTrue(everything.matches(udp(address("255.255.255.255"), 1, address("0.0.0.0"), 2)));
+        assertFalse(CaptureFilter.compile("not dst net 0.0.0.0/0").matches(udp(DEVICE, 1, HOST_A, 2)));
+
+        CaptureFilter single = CaptureFilter.compile("dst net 93.184.216.34/32");
+        assertTrue(single.matches(udp(DEVICE, 1, HOST_A, 2)));
+        assertFalse(single.matches(udp(DEVICE, 1, HOST_A + 1, 2)));
+        assertFalse(single.matches(udp(HOST_A, 1, DEVICE, 2)));
+
+        // Host bits past the prefix are ignored, as are missing lengths (a single host)
+        CaptureFilter net = CaptureFilter.compile("net 10.1.2.3/8 or net 93.184.216.35");
+        assertTrue(net.matches(udp(address("10.200.0.1"), 1, HOST_C, 2)));
+        assertTrue(net.matches(udp(HOST_C, 1, HOST_A + 1, 2)));
+        assertFalse(net.matches(udp(HOST_C, 1, HOST_A, 2)));
+    }
+
+    @Test
+    public void portsOnlyMatchTCPAndUDP() {
+        CaptureFilter filter = CaptureFilter.compile("portrange 0-65535");
+        assertTrue(filter.matches(tcp(DEVICE, 40000, HOST_A, 443, 0)));
+        assertTrue(filter.matches(udp(DEVICE, 40000, HOST_C, 53)));
+        assertFalse(filter.matches(icmp(DEVICE, HOST_C)));
+        assertTrue(CaptureFilter.compile("not portrange 0-65535").matches(icmp(DEVICE, HOST_C)));
+        assertTrue(CaptureFilter.compile("icmp").matches(icmp(DEVICE, HOST_C)));
+
+        CaptureFilter range = CaptureFilter.compile("dst portrange 8000-8999");
+        assertTrue(range.matches(tcp(DEVICE, 40000, HOST_A, 8000, 0)));
+        assertTrue(range.matches(tcp(DEVICE, 40000, HOST_A, 8999, 0)));
+        assertFalse(range.matches(tcp(DEVICE, 40000, HOST_A, 9000, 0)));
+        assertFalse(range.matches(tcp(HOST_A, 8080, DEVICE, 40000, 0)));
+        assertTrue(CaptureFilter.compile("src port 8080").matches(tcp(HOST_A, 8080, DEVICE, 40000, 0)));
+    }
+
+    @Test
+    public void tcpFlagsRequireEveryListedFlag() {
+        CaptureFilter filter = CaptureFilter.compile("tcpflags syn and not tcpflags ack");
+        assertTrue(filter.matches(tcp(DEVICE, 40000, HOST_A, 443, Packet.TCPHeader.SYN)));
+        assertFalse(filter.matches(tcp(HOST_A, 443, DEVICE, 40000, Packet.TCPHeader.SYN | Packet.TCPHeader.ACK)));
+        assertFalse(filter.matches(udp(DEVICE, 40000, HOST_C, 53)));
+
+        CaptureFilter finAck = CaptureFilter.compile("TCPFLAGS FIN,ACK");
+        assertTrue(finAck.matches(tcp(DEVICE, 40000, HOST_A, 443, Packet.TCPHeader.FIN | Packet.TCPHeader.ACK | Packet.TCPHeader.PSH)));
+        assertFalse(finAck.matches(tcp(DEVICE, 40000, HOST_A, 443, Packet.TCPHeader.FIN)));
+    }
+
+    @Test
+    public void protoNumber() {
+        assertTrue(CaptureFilter.compile("proto 17").matches(udp(DEVICE, 40000, HOST_C, 53)));
+        assertFalse(CaptureFilter.compile("proto 17").matches(tcp(DEVICE, 40000, HOST_C, 53, 0)));
+    }
+
+    @Test
+    public void errorsNameTheOffendingToken() {
+        assertError("tcp and", "Unexpected end of expression");
+        assertError("tcp udp", "Unexpected 'udp'");
+        assertError("(tcp udp", "Missing ')'");
+        assertError("foo 1", "Unknown primitive 'foo'");
+        assertError("src tcp", "Unknown primitive 'tcp'");
+        assertError("host 1.2.3", "Bad IPv4 address '1.2.3'");
+        assertError("host 1.2.3.256", "Number out of range '256'");
+        assertError("host example.com", "Bad IPv4 address 'example.com'");
+        assertError("port http", "Bad number 'http'");
+        assertError("port 70000", "Number out of range '70000'");
+        assertError("portrange 80", "Bad port range '80'");
+        assertError("portrange 90-80", "Bad port range '90-80'");
+        assertError("net 10.0.0.0/33", "Number out of range '33'");
+        assertError("proto 256", "Number out of range '256'");
+        assertError("tcpflags syn,foo", "Unknown TCP flag 'foo'");
+    }
+
+    private static void assertError(String expression, String message) {
+        try {
+            CaptureFilter.compile(expression);
+            fail("Compiled " + expression);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message + " in capture filter \"" + expression + "\"", e.getMessage());
+        }
+    }
+
+    private static ByteBuffer tcp(int source, int sourcePort, int destination, int destinationPort, int flags) {
+        ByteBuffer buffer = ip4(PacketView.PROTOCOL_TCP, source, destination, 20);
+        buffer.putShort(20, (short) sourcePort).putShort(22, (short) destinationPort);
+        buffer.put(32, (byte) (5 << 4)).put(33, (byte) flags);
+        return buffer;
+    }
+
+    private static ByteBuffer udp(int source, int sourcePort, int destination, int destinationPort) {
+        ByteBuffer buffer = ip4(PacketView.PROTOCOL_UDP, source, destination, 8);
+        buffer.putShort(20, (short) sourcePort).putShort(22, (short) destinationPort).putShort(24, (short) 8);
+        return buffer;
+    }
+
+    /**
+     * An echo request, whose identifier and sequence sit where ports would be.
+     */
+    private static ByteBuffer icmp(int source, int destination) {
+        ByteBuffer buffer = ip4(ICMP, source, destination, 8);
+        buffer.put(20, (byte) 8).putShort(24, (short) 80).putShort(26, (short) 80);
+        return buffer;
+    }
+
+    private static ByteBuffer ip4(int protocol, int source, int destination, int transportLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + transportLength);
+        buffer.put(0, (byte) 0x45).putShort(2, (short) buffer.capacity());
+        buffer.put(8, (byte) 64).put(9, (byte) protocol);
+        buffer.putInt(12, source).putInt(16, destination);
+        return buffer;
+    }
+
+    private static int address(String dotted) {
+        int address = 0;
+        for (String part : dotted.split("\\.")) address = address << 8 | Integer.parseInt(part);
+        return address;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.packetcapturing.net;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChecksumTest {
+    private static final int TCP = 6;
+    private static final int UDP = 17;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void sumMatchesBytewiseSumAtAnyOffsetAndLength() {
+        ByteBuffer buffer = randomBuffer(256);
+        for (int offset = 0; offset < 16; offset++) {
+            for (int length = 0; length <= 120; length++) {
+                long initial = random.nextInt(0x10000);
+                assertEquals("offset " + offset + " length " + length,
+                        referenceSum(buffer, offset, length, initial), Checksum.fold(Checksum.sum(buffer, offset, length, initial)));
+            }
+        }
+    }
+
+    @Test
+    public void sumLeavesPositionAlone() {
+        ByteBuffer buffer = randomBuffer(64);
+        buffer.position(7);
+        Checksum.sum(buffer, 3, 41, 0);
+        assertEquals(7, buffer.position());
+    }
+
+    @Test
+    public void pseudoHeaderSumCoversAddressesProtocolAndLength() {
+        ByteBuffer buffer = randomBuffer(40);
+        long expected = referenceSum(buffer, 12, 8, TCP + 1234);
+        assertEquals(expected, Checksum.fold(Checksum.pseudoHeaderSum(buffer, TCP, 1234)));
+    }
+
+    @Test
+    public void adjustMatchesFullSum() {
+        for (int i = 0; i < 10000; i++) {
+            int length = 2 + 2 * random.nextInt(40);
+            ByteBuffer buffer = randomBuffer(length);
+            int field = 2 * random.nextInt(length / 2);
+            int checksum = Checksum.finish(Checksum.sum(buffer, 0, length, 0));
+
+            int oldValue = buffer.getShort(field) & 0xFFFF;
+            int newValue = random.nextInt(0x10000);
+            buffer.putShort(field, (short) newValue);
+            assertEquals(Checksum.finish(Checksum.sum(buffer, 0, length, 0)), Checksum.adjust(checksum, oldValue, newValue));
+        }
+    }
+
+    @Test
+    public void adjust32MatchesFullSum() {
+        for (int i = 0; i < 10000; i++) {
+            int length = 4 + 2 * random.nextInt(40);
+            ByteBuffer buffer = randomBuffer(length);
+            // 32-bit fields only need 16-bit alignment, as the TCP sequence number after the ports
+            int field = 2 * random.nextInt(length / 2 - 1);
+            int checksum = Checksum.finish(Checksum.sum(buffer, 0, length, 0));
+
+            long oldValue = buffer.getInt(field) & 0xFFFFFFFFL;
+            long newValue = i % 100 == 0 ? 0xFFFFFFFFL - i % 3 : random.nextInt() & 0xFFFFFFFFL;
+            buffer.putInt(field, (int) newValue);
+            assertEquals(Checksum.finish(Checksum.sum(buffer, 0, length, 0)), Checksum.adjust32(checksum, oldValue, newValue));
+        }
+    }
+
+    @Test
+    public void consecutiveTCPSegmentsCarryValidChecksums() throws Exception {
+        byte[] flagChoices = {Packet.TCPHeader.ACK, Packet.TCPHeader.RST, Packet.TCPHeader.FIN | Packet.TCPHeader.ACK,
+                Packet.TCPHeader.FIN, Packet.TCPHeader.PSH | Packet.TCPHeader.ACK};
+        for (int connection = 0; connection < 200; connection++) {
+            Packet packet = new Packet(tcpPacket());
+            packet.swapSourceAndDestination();
+            long sequenceNum = random.nextInt() & 0xFFFFFFFFL;
+            long ackNum = random.nextInt() & 0xFFFFFFFFL;
+
+            for (int segment = 0; segment < 50; segment++) {
+                ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE + Packet.TCP_MSS);
+                if (segment == 0 && connection % 2 == 0) {
+                    packet.updateSYNACKBuffer(buffer, sequenceNum, ackNum, connection % 4 == 0 ? -1 : Packet.RECEIVE_WINDOW_SCALE);
+                    assertValidTCP(buffer);
+                    sequenceNum++;
+                    continue;
+                }
+                // Mostly control segments, so the incremental path runs several times in a row
+                int payloadSize = random.nextInt(4) == 0 ? 1 + random.nextInt(Packet.TCP_MSS) : 0;
+                for (int i = 0; i < payloadSize; i++) buffer.put(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE + i, (byte) random.nextInt());
+                byte flags = payloadSize > 0 ? (byte) (Packet.TCPHeader.PSH | Packet.TCPHeader.ACK) : flagChoices[random.nextInt(flagChoices.length)];
+
+                packet.updateTCPBuffer(buffer, flags, sequenceNum, ackNum, payloadSize);
+                assertValidTCP(buffer);
+                assertEquals(flags, buffer.get(Packet.IP4_HEADER_SIZE + 13));
+                assertEquals((int) sequenceNum, buffer.getInt(Packet.IP4_HEADER_SIZE + 4));
+                assertEquals((int) ackNum, buffer.getInt(Packet.IP4_HEADER_SIZE + 8));
+
+                // Wraps past 2^32 now and then
+                sequenceNum = (sequenceNum + payloadSize + (random.nextInt(8) == 0 ? 0xFFFFFF00L : 0)) & 0xFFFFFFFFL;
+                ackNum = (ackNum + random.nextInt(3000)) & 0xFFFFFFFFL;
+            }
+        }
+    }
+
+    @Test
+    public void consecutiveUDPDatagramsCarryValidChecksums() throws Exception {
+        Packet.setUDPChecksumEnabled(true);
+        try {
+            Packet packet = new Packet(udpPacket());
+            packet.swapSourceAndDestination();
+            for (int i = 0; i < 500; i++) {
+                // Odd sizes too, the last byte is padded
+                int payloadSize = random.nextInt(1400);
+                ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE + payloadSize);
+                for (int j = 0; j < payloadSize; j++) buffer.put(Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE + j, (byte) random.nextInt());
+                packet.updateUDPBuffer(buffer, payloadSize);
+
+                assertEquals(0xFFFF, referenceSum(buffer, 0, Packet.IP4_HEADER_SIZE, 0));
+                int udpLength = Packet.UDP_HEADER_SIZE + payloadSize;
+                assertEquals(0xFFFF, referenceSum(buffer, Packet.IP4_HEADER_SIZE, udpLength, referenceSum(buffer, 12, 8, UDP + udpLength)));
+            }
+        } finally {
+            Packet.setUDPChecksumEnabled(false);
+        }
+    }
+
+    private static void assertValidTCP(ByteBuffer buffer) {
+        int ip4TotalLength = buffer.getShort(2) & 0xFFFF;
+        assertEquals("IPv4 header checksum", 0xFFFF, referenceSum(buffer, 0, Packet.IP4_HEADER_SIZE, 0));
+        int tcpLength = ip4TotalLength - Packet.IP4_HEADER_SIZE;
+        long pseudoHeader = referenceSum(buffer, 12, 8, TCP + tcpLength);
+        assertEquals("TCP checksum", 0xFFFF, referenceSum(buffer, Packet.IP4_HEADER_SIZE, tcpLength, pseudoHeader));
+    }
+
+    /**
+     * Folded RFC 1071 sum, one 16-bit word at a time.
+     */
+    private static int referenceSum(ByteBuffer buffer, int offset, int length, long initial) {
+        long sum = initial;
+        for (int i = 0; i < length; i += 2) {
+            int high = buffer.get(offset + i) & 0xFF;
+            int low = i + 1 < length ? buffer.get(offset + i + 1) & 0xFF : 0;
+            sum += (high << 8) | low;
+        }
+        while (sum >>> 16 != 0) sum = (sum & 0xFFFF) + (sum >>> 16);
+        return (int) sum;
+    }
+
+    private ByteBuffer randomBuffer(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private ByteBuffer tcpPacket() {
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE);
+        putIP4Header(buffer, TCP, Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE);
+        buffer.putShort((short) (1024 + random.nextInt(64000))).putShort((short) 443);
+        buffer.putInt(random.nextInt()).putInt(0);
+        buffer.put((byte) (Packet.TCP_HEADER_SIZE << 2)).put((byte) Packet.TCPHeader.SYN).putShort((short) 65535);
+        buffer.putShort((short) 0).putShort((short) 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer udpPacket() {
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE);
+        putIP4Header(buffer, UDP, Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE);
+        buffer.putShort((short) 40000).putShort((short) 53).putShort((short) Packet.UDP_HEADER_SIZE).putShort((short) 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void putIP4Header(ByteBuffer buffer, int protocol, int totalLength) {
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) totalLength);
+        buffer.putInt(random.nextInt() & 0xFFFF0000 | 0x4000);
+        buffer.put((byte) 64).put((byte) protocol).putShort((short) 0);
+        buffer.putInt(0x0A000002).putInt(random.nextInt());
+    }
+}
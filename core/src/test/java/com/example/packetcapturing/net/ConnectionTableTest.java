@@ -0,0 +1,60 @@
+package com.example.packetcapturing.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionTableTest {
+    private static final int SERVER_A = 0x5DB8D822; // 93.184.216.34
+    private static final int SERVER_B = 0x0A000001; // 10.0.0.1
+
+    @Test
+    public void keyKeepsAddressWithHighPorts() {
+        long keyA = ConnectionTable.key(SERVER_A, 50000, 40000);
+        long keyB = ConnectionTable.key(SERVER_B, 50000, 40000);
+        assertNotEquals(keyA, keyB);
+        assertEquals("93.184.216.34:50000:40000", ConnectionTable.keyToString(keyA));
+        assertEquals("10.0.0.1:50000:40000", ConnectionTable.keyToString(keyB));
+    }
+
+    @Test
+    public void keyKeepsPortsWithHighAddress() {
+        long key = ConnectionTable.key(0xFFFFFFFE, 65535, 65534);
+        assertEquals("255.255.255.254:65535:65534", ConnectionTable.keyToString(key));
+    }
+
+    @Test
+    public void highPortFlowsToDifferentServersAreSeparate() {
+        ConnectionTable<String> table = new ConnectionTable<>(4, new ConnectionTable.CleanupCallback<String>() {
+            @Override
+            public void cleanup(long key, String value) {
+            }
+        });
+        table.put(ConnectionTable.key(SERVER_A, 50000, 40000), "a");
+        table.put(ConnectionTable.key(SERVER_B, 50000, 40000), "b");
+        assertEquals(2, table.size());
+        assertSame("a", table.get(ConnectionTable.key(SERVER_A, 50000, 40000)));
+        assertSame("b", table.get(ConnectionTable.key(SERVER_B, 50000, 40000)));
+    }
+
+    @Test
+    public void removeWithValueLeavesNewerEntry() {
+        ConnectionTable<String> table = new ConnectionTable<>(4, new ConnectionTable.CleanupCallback<String>() {
+            @Override
+            public void cleanup(long key, String value) {
+            }
+        });
+        long key = ConnectionTable.key(SERVER_A, 443, 40000);
+        String stale = new String("connection");
+        String current = new String("connection");
+        table.put(key, current);
+        assertFalse(table.remove(key, stale));
+        assertSame(current, table.get(key));
+        assertTrue(table.remove(key, current));
+        assertEquals(0, table.size());
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.platform.SocketProtector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the whole proxy on the JVM against loopback servers, with a {@link MemoryTunnel} playing
+ * the device: UDP round trip latency through an echo server, then TCP upload and download
+ * throughput over one connection each.
+ *
+ * Run main() from the IDE with the test classpath; args are the TCP transfer size in MB and the
+ * number of TCP shards.
+ */
+public class LoopbackLoadBenchmark {
+    private static final int DEVICE_ADDRESS = 0x0A000002;
+    private static final int LOOPBACK_ADDRESS = 0x7F000001;
+    private static final int UDP_ROUND_TRIPS = 2000;
+    private static final int DEVICE_MSS = Packet.TCP_MSS;
+    private static final int DEVICE_WINDOW = 65535;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        long transferBytes = (args.length > 0 ? Long.parseLong(args[0]) : 64) * 1024 * 1024;
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : TCPEngine.defaultShardCount();
+
+        MemoryTunnel tunnel = new MemoryTunnel(1024);
+        ProxyEngine proxyEngine = new ProxyEngine(SocketProtector.NONE, shards, 8 * 1024 * 1024);
+        proxyEngine.start(tunnel, true, null);
+        try {
+            udpLatency(tunnel);
+            tcpUpload(tunnel, transferBytes);
+            tcpDownload(tunnel, transferBytes);
+        } finally {
+            proxyEngine.close();
+        }
+        System.exit(0);
+    }
+
+    private static void udpLatency(MemoryTunnel tunnel) throws Exception {
+        final DatagramSocket echoSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        Thread echo = new Thread(() -> {
+            byte[] data = new byte[2048];
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+            try {
+                while (true) {
+                    packet.setLength(data.length);
+                    echoSocket.receive(packet);
+                    echoSocket.send(packet);
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        });
+        echo.start();
+
+        byte[] payload = new byte[64]; // About a DNS query
+        long[] roundTrips = new long[UDP_ROUND_TRIPS];
+        for (int i = 0; i < UDP_ROUND_TRIPS; i++) {
+            long start = System.nanoTime();
+            tunnel.send(udp(40000, echoSocket.getLocalPort(), payload));
+            ByteBuffer response;
+            do {
+                response = tunnel.receive(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (response == null) throw new IllegalStateException("No UDP response");
+            } while (!new PacketView().wrap(response).isUDP());
+            roundTrips[i] = System.nanoTime() - start;
+        }
+        echoSocket.close();
+
+        Arrays.sort(roundTrips);
+        System.out.printf("UDP round trip: p50 %d us, p99 %d us, max %d us%n",
+                roundTrips[UDP_ROUND_TRIPS / 2] / 1000, roundTrips[UDP_ROUND_TRIPS * 99 / 100] / 1000, roundTrips[UDP_ROUND_TRIPS - 1] / 1000);
+    }
+
+    private static void tcpUpload(final MemoryTunnel tunnel, final long transferBytes) throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final CountDownLatch received = new CountDownLatch(1);
+        final AtomicLong receivedAt = new AtomicLong();
+        Thread sink = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream input = socket.getInputStream();
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                int read;
+                while (total < transferBytes && (read = input.read(buffer)) != -1) total += read;
+                receivedAt.set(System.nanoTime());
+                received.countDown();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        sink.start();
+
+        int port = 41000;
+        long sequenceNumber = 1000;
+        long acknowledgementNumber = handshake(tunnel, port, server.getLocalPort(), sequenceNumber);
+        sequenceNumber++;
+
+        // ACKs for the data are not needed here, keep draining them so the proxy never blocks on the tunnel
+        Thread drain = new Thread(() -> {
+            try {
+                while (!Thread.interrupted()) tunnel.receive(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // Done
+            }
+        });
+        drain.start();
+
+        byte[] payload = new byte[DEVICE_MSS];
+        long start = System.nanoTime();
+        for (long sent = 0; sent < transferBytes; sent += payload.length) {
+            tunnel.send(tcp(port, server.getLocalPort(), sequenceNumber, acknowledgementNumber, Packet.TCPHeader.PSH | Packet.TCPHeader.ACK, null, payload));
+            sequenceNumber += payload.length;
+        }
+        if (!received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) throw new IllegalStateException("Upload timed out");
+        drain.interrupt();
+        drain.join();
+        server.close();
+        report("TCP upload", transferBytes, receivedAt.get() - start);
+    }
+
+    private static void tcpDownload(MemoryTunnel tunnel, final long transferBytes) throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread source = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                OutputStream output = socket.getOutputStream();
+                byte[] buffer = new byte[64 * 1024];
+                for (long sent = 0; sent < transferBytes; sent += buffer.length) output.write(buffer);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        source.start();
+
+        int port = 42000;
+        long sequenceNumber = 5000;
+        long expected = handshake(tunnel, port, server.getLocalPort(), sequenceNumber);
+        sequenceNumber++;
+
+        long start = System.nanoTime();
+        long total = 0;
+        PacketView view = new PacketView();
+        while (total < transferBytes) {
+            ByteBuffer packet = tunnel.receive(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (packet == null) throw new IllegalStateException("Download timed out after " + total + " bytes");
+            view.wrap(packet);
+            if (!view.isTCP() || view.destinationPort() != port || view.payloadSize() == 0) continue;
+            if (view.sequenceNumber() == expected) {
+                expected = (expected + view.payloadSize()) & 0xFFFFFFFFL;
+                total += view.payloadSize();
+            }
+            tunnel.send(tcp(port, server.getLocalPort(), sequenceNumber, expected, Packet.TCPHeader.ACK, null, null));
+        }
+        long elapsed = System.nanoTime() - start;
+        server.close();
+        report("TCP download", transferBytes, elapsed);
+    }
+
+    /**
+     * Opens a connection from the device and returns the next sequence number expected from the proxy.
+     */
+    private static long handshake(MemoryTunnel tunnel, int sourcePort, int destinationPort, long sequenceNumber) throws Exception {
+        byte[] mssOption = {2, 4, (byte) (DEVICE_MSS >> 8), (byte) DEVICE_MSS};
+        tunnel.send(tcp(sourcePort, destinationPort, sequenceNumber, 0, Packet.TCPHeader.SYN, mssOption, null));
+        PacketView view = new PacketView();
+        while (true) {
+            ByteBuffer packet = tunnel.receive(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (packet == null) throw new IllegalStateException("No SYN-ACK");
+            view.wrap(packet);
+            if (view.isTCP() && view.destinationPort() == sourcePort && view.isSYN()) break;
+        }
+        long acknowledgementNumber = (view.sequenceNumber() + 1) & 0xFFFFFFFFL;
+        tunnel.send(tcp(sourcePort, destinationPort, sequenceNumber + 1, acknowledgementNumber, Packet.TCPHeader.ACK, null, null));
+        return acknowledgementNumber;
+    }
+
+    private static void report(String name, long bytes, long nanos) {
+        System.out.printf("%s: %d MB in %d ms, %.1f MB/s%n", name, bytes >> 20, nanos / 1000000, bytes / 1048576.0 / (nanos / 1e9));
+    }
+
+    private static ByteBuffer tcp(int sourcePort, int destinationPort, long sequenceNumber, long acknowledgementNumber, int flags, byte[] options, byte[] payload) {
+        int optionsLength = options != null ? options.length : 0;
+        int payloadLength = payload != null ? payload.length : 0;
+        int tcpHeaderLength = Packet.TCP_HEADER_SIZE + optionsLength;
+        ByteBuffer buffer = ip4(PacketView.PROTOCOL_TCP, Packet.IP4_HEADER_SIZE + tcpHeaderLength + payloadLength);
+        buffer.putShort((short) sourcePort).putShort((short) destinationPort)
+                .putInt((int) sequenceNumber).putInt((int) acknowledgementNumber)
+                .put((byte) (tcpHeaderLength / 4 << 4)).put((byte) flags).putShort((short) DEVICE_WINDOW)
+                .putShort((short) 0).putShort((short) 0);
+        if (options != null) buffer.put(options);
+        if (payload != null) buffer.put(payload);
+        return finish(buffer, PacketView.PROTOCOL_TCP, 16);
+    }
+
+    private static ByteBuffer udp(int sourcePort, int destinationPort, byte[] payload) {
+        int udpLength = Packet.UDP_HEADER_SIZE + payload.length;
+        ByteBuffer buffer = ip4(PacketView.PROTOCOL_UDP, Packet.IP4_HEADER_SIZE + udpLength);
+        buffer.putShort((short) sourcePort).putShort((short) destinationPort).putShort((short) udpLength).putShort((short) 0).put(payload);
+        return finish(buffer, PacketView.PROTOCOL_UDP, 6);
+    }
+
+    private static ByteBuffer ip4(int protocol, int totalLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) totalLength).putInt(0x4000)
+                .put((byte) 64).put((byte) protocol).putShort((short) 0)
+                .putInt(DEVICE_ADDRESS).putInt(LOOPBACK_ADDRESS);
+        return buffer;
+    }
+
+    private static ByteBuffer finish(ByteBuffer buffer, int protocol, int checksumOffset) {
+        int transportLength = buffer.position() - Packet.IP4_HEADER_SIZE;
+        buffer.putShort(10, (short) Checksum.finish(Checksum.sum(buffer, 0, Packet.IP4_HEADER_SIZE, 0)));
+        long sum = Checksum.sum(buffer, Packet.IP4_HEADER_SIZE, transportLength, Checksum.pseudoHeaderSum(buffer, protocol, transportLength));
+        buffer.putShort(Packet.IP4_HEADER_SIZE + checksumOffset, (short) Checksum.finish(sum));
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.packetcapturing.net;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Device to network packets for the JMH benchmarks, shaped like what Android sends while loading
+ * a page: SYNs with the usual Linux options, full-size data segments and pure ACKs carrying
+ * timestamps, and DNS queries. Checksums are valid, so the packets also pass through code that
+ * checks them.
+ */
+final class PacketMix {
+    static final String SYN = "SYN";
+    static final String BULK = "BULK";
+    static final String ACK = "ACK";
+    static final String DNS = "DNS";
+    // Roughly a page load seen from the device: mostly ACKs for downloaded data
+    static final String MIX = "MIX";
+
+    private static final int DEVICE_ADDRESS = 0x0A000002; // VPN_ADDRESS
+    private static final int SERVERS = 16;
+    private static final int TIMESTAMP_OPTIONS_SIZE = 12;
+    private static final String[] HOST_NAMES = {"www.example.com", "fonts.gstatic.com", "i.ytimg.com", "api.github.com"};
+
+    private PacketMix() {
+    }
+
+    /**
+     * count packets of the given kind, each in its own direct buffer with position 0 and limit at
+     * the end of the packet. count must be a power of two so callers can cycle with a mask.
+     */
+    static ByteBuffer[] packets(String kind, int count, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer[] packets = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) packets[i] = build(MIX.equals(kind) ? pickKind(random) : kind, random);
+        return packets;
+    }
+
+    static ByteBuffer build(String kind, Random random) {
+        int serverAddress = 0x5DB8D800 + random.nextInt(SERVERS); // 93.184.216.x
+        int sourcePort = 32768 + random.nextInt(28232);
+        switch (kind) {
+            case SYN:
+                return tcp(random, serverAddress, sourcePort, Packet.TCPHeader.SYN, synOptions(random), 0);
+            case BULK:
+                return tcp(random, serverAddress, sourcePort, Packet.TCPHeader.PSH | Packet.TCPHeader.ACK,
+                        timestampOptions(random), Packet.MTU - Packet.IP4_HEADER_SIZE - Packet.TCP_HEADER_SIZE - TIMESTAMP_OPTIONS_SIZE);
+            case ACK:
+                return tcp(random, serverAddress, sourcePort, Packet.TCPHeader.ACK, timestampOptions(random), 0);
+            case DNS:
+                return dnsQuery(random, 0x08080808, sourcePort, HOST_NAMES[random.nextInt(HOST_NAMES.length)]);
+            default:
+                throw new IllegalArgumentException("Unknown packet kind: " + kind);
+        }
+    }
+
+    private static String pickKind(Random random) {
+        int n = random.nextInt(100);
+        if (n < 45) return ACK;
+        if (n < 80) return BULK;
+        if (n < 92) return DNS;
+        return SYN;
+    }
+
+    private static ByteBuffer tcp(Random random, int serverAddress, int sourcePort, int flags, byte[] options, int payloadSize) {
+        int tcpHeaderLength = Packet.TCP_HEADER_SIZE + options.length;
+        int totalLength = Packet.IP4_HEADER_SIZE + tcpHeaderLength + payloadSize;
+        ByteBuffer buffer = ip4(random, PacketView.PROTOCOL_TCP, serverAddress, totalLength);
+        buffer.putShort((short) sourcePort).putShort((short) 443)
+                .putInt(random.nextInt()).putInt((flags & Packet.TCPHeader.ACK) != 0 ? random.nextInt() : 0)
+                .put((byte) (tcpHeaderLength / 4 << 4)).put((byte) flags)
+                .putShort((short) ((flags & Packet.TCPHeader.SYN) != 0 ? 65535 : 2000 + random.nextInt(1000)))
+                .putShort((short) 0).putShort((short) 0)
+                .put(options);
+        for (int i = 0; i < payloadSize; i++) buffer.put((byte) random.nextInt());
+        return finish(buffer, PacketView.PROTOCOL_TCP, 16);
+    }
+
+    private static ByteBuffer dnsQuery(Random random, int serverAddress, int sourcePort, String name) {
+        int nameLength = name.length() + 2;
+        int dnsLength = 12 + nameLength + 4;
+        int totalLength = Packet.IP4_HEADER_SIZE + Packet.UDP_HEADER_SIZE + dnsLength;
+        ByteBuffer buffer = ip4(random, PacketView.PROTOCOL_UDP, serverAddress, totalLength);
+        buffer.putShort((short) sourcePort).putShort((short) 53)
+                .putShort((short) (Packet.UDP_HEADER_SIZE + dnsLength)).putShort((short) 0)
+                .putShort((short) random.nextInt()).putShort((short) 0x0100) // Recursion desired
+                .putShort((short) 1).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        for (String label : name.split("\\.")) {
+            buffer.put((byte) label.length());
+            for (int i = 0; i < label.length(); i++) buffer.put((byte) label.charAt(i));
+        }
+        buffer.put((byte) 0).putShort((short) 1).putShort((short) 1); // A, IN
+        return finish(buffer, PacketView.PROTOCOL_UDP, 6);
+    }
+
+    private static ByteBuffer ip4(Random random, int protocol, int destinationAddress, int totalLength) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ByteBufferPool.MEDIUM);
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) totalLength)
+                .putShort((short) random.nextInt()).putShort((short) 0x4000) // Don't fragment
+                .put((byte) 64).put((byte) protocol).putShort((short) 0)
+                .putInt(DEVICE_ADDRESS).putInt(destinationAddress);
+        return buffer;
+    }
+
+    private static ByteBuffer finish(ByteBuffer buffer, int protocol, int checksumOffset) {
+        int totalLength = buffer.position();
+        int transportLength = totalLength - Packet.IP4_HEADER_SIZE;
+        buffer.putShort(10, (short) Checksum.finish(Checksum.sum(buffer, 0, Packet.IP4_HEADER_SIZE, 0)));
+        long sum = Checksum.sum(buffer, Packet.IP4_HEADER_SIZE, transportLength, Checksum.pseudoHeaderSum(buffer, protocol, transportLength));
+        buffer.putShort(Packet.IP4_HEADER_SIZE + checksumOffset, (short) Checksum.finish(sum));
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] synOptions(Random random) {
+        ByteBuffer options = ByteBuffer.allocate(20);
+        options.put((byte) 2).put((byte) 4).putShort((short) Packet.TCP_MSS) // MSS
+                .put((byte) 4).put((byte) 2) // SACK permitted
+                .put((byte) 8).put((byte) 10).putInt(random.nextInt()).putInt(0) // Timestamps
+                .put((byte) 1) // NOP
+                .put((byte) 3).put((byte) 3).put((byte) 8); // Window scale
+        return options.array();
+    }
+
+    private static byte[] timestampOptions(Random random) {
+        ByteBuffer options = ByteBuffer.allocate(TIMESTAMP_OPTIONS_SIZE);
+        options.put((byte) 1).put((byte) 1).put((byte) 8).put((byte) 10).putInt(random.nextInt()).putInt(random.nextInt());
+        return options.array();
+    }
+}
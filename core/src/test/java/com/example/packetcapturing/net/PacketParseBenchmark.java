@@ -0,0 +1,65 @@
+package com.example.packetcapturing.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-packet parsing cost: the full {@link Packet} objects built for new connections against the
+ * {@link PacketView} flyweight used for everything else.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketParseBenchmark {
+    private static final int PACKETS = 256;
+
+    @Param({PacketMix.SYN, PacketMix.BULK, PacketMix.ACK, PacketMix.DNS, PacketMix.MIX})
+    public String kind;
+
+    private final PacketView packetView = new PacketView();
+    private ByteBuffer[] packets;
+    private int next;
+
+    @Setup
+    public void setup() {
+        packets = PacketMix.packets(kind, PACKETS, 42);
+    }
+
+    @Benchmark
+    public Packet packet() throws UnknownHostException {
+        return new Packet(nextPacket());
+    }
+
+    @Benchmark
+    public long packetView() {
+        // The fields TCPOutput/UDPOutput read for every packet
+        PacketView view = packetView.wrap(nextPacket());
+        if (!view.isValid()) return -1;
+        long key = ConnectionTable.key(view.destinationAddress(), view.destinationPort(), view.sourcePort());
+        if (view.isTCP()) return key ^ view.sequenceNumber() ^ view.acknowledgementNumber() ^ view.flags() ^ view.payloadSize();
+        return key ^ view.payloadSize();
+    }
+
+    private ByteBuffer nextPacket() {
+        ByteBuffer packet = packets[next];
+        next = (next + 1) & (PACKETS - 1);
+        packet.position(0); // Packet leaves it after the headers
+        return packet;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.packetcapturing.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building responses to the device from a connection's reference packet, checksums included.
+ * payloadSize 0 is a pure ACK, 1448 a full segment read from upstream; for UDP, 100 is a typical
+ * DNS answer. Sequence numbers advance between calls as they do on a live connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketUpdateBenchmark {
+    private static final int HEADER_SIZE = Packet.IP4_HEADER_SIZE + Packet.TCP_HEADER_SIZE;
+
+    @Param({"0", "100", "1448"})
+    public int payloadSize;
+
+    private Packet tcpReference;
+    private Packet udpReference;
+    private ByteBuffer responseBuffer;
+    private long sequenceNumber;
+    private long acknowledgementNumber;
+
+    @Setup
+    public void setup() throws UnknownHostException {
+        Random random = new Random(42);
+        tcpReference = reference(PacketMix.build(PacketMix.SYN, random));
+        udpReference = reference(PacketMix.build(PacketMix.DNS, random));
+        Packet.setUDPChecksumEnabled(true);
+
+        responseBuffer = ByteBuffer.allocateDirect(ByteBufferPool.MEDIUM);
+        for (int i = 0; i < responseBuffer.capacity(); i++) responseBuffer.put(i, (byte) random.nextInt());
+        sequenceNumber = random.nextInt() & 0xFFFFFFFFL;
+        acknowledgementNumber = random.nextInt() & 0xFFFFFFFFL;
+    }
+
+    @TearDown
+    public void tearDown() {
+        Packet.setUDPChecksumEnabled(false);
+    }
+
+    @Benchmark
+    public ByteBuffer updateTCPBuffer() {
+        responseBuffer.clear();
+        tcpReference.updateTCPBuffer(responseBuffer, (byte) (Packet.TCPHeader.PSH | Packet.TCPHeader.ACK), sequenceNumber, acknowledgementNumber, payloadSize);
+        sequenceNumber = (sequenceNumber + payloadSize) & 0xFFFFFFFFL;
+        return responseBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer updateUDPBuffer() {
+        responseBuffer.clear();
+        udpReference.updateUDPBuffer(responseBuffer, payloadSize);
+        return responseBuffer;
+    }
+
+    // Same setup TCPOutput/UDPOutput do for a new connection
+    private static Packet reference(ByteBuffer packetBuffer) throws UnknownHostException {
+        Packet packet = new Packet(packetBuffer);
+        packet.backingBuffer = null;
+        packet.swapSourceAndDestination();
+        return packet;
+    }
+}
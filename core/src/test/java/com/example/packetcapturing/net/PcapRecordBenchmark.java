@@ -0,0 +1,104 @@
+package com.example.packetcapturing.net;
+
+import com.example.packetcapturing.managers.RawPacketManager;
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.pcaputils.PcapRecord;
+import com.example.packetcapturing.pcaputils.PcapngWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing captured packets into PCAP records. copyAndWrite is the streaming path: CaptureTap
+ * copies the packet into a RawPacket and FileWriterThread writes it as a PcapRecord;
+ * copyHeadersAndWrite is the same with a headers-only snap length and copyAndWritePcapng writes
+ * an Enhanced Packet Block instead.
+ * writeRecordHeader is the export path, which writes the header and copies the packet straight
+ * into the batch buffer. ringAdd is the copy into RawPacketManager's ring on the capture path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcapRecordBenchmark {
+    private static final int PACKETS = 256;
+    private static final int BATCH_BUFFER_SIZE = 128 * 1024;
+    private static final SnapLength HEADERS_ONLY = SnapLength.parse("0");
+
+    @Param({PacketMix.SYN, PacketMix.BULK, PacketMix.ACK, PacketMix.DNS, PacketMix.MIX})
+    public String kind;
+
+    private final PacketView packetView = new PacketView();
+    private final ByteBuffer batchBuffer = ByteBuffer.allocateDirect(BATCH_BUFFER_SIZE);
+    private ByteBuffer[] packets;
+    private int next;
+
+    @Setup
+    public void setup() {
+        packets = PacketMix.packets(kind, PACKETS, 42);
+    }
+
+    @Benchmark
+    public ByteBuffer copyAndWrite() {
+        return copyAndWrite(SnapLength.FULL);
+    }
+
+    @Benchmark
+    public ByteBuffer copyHeadersAndWrite() {
+        return copyAndWrite(HEADERS_ONLY);
+    }
+
+    @Benchmark
+    public ByteBuffer copyAndWritePcapng() {
+        PacketView view = nextPacket();
+        RawPacket rawPacket = new RawPacket(CaptureClock.nowNanos(), view.copy(view.totalLength()), view.totalLength(), RawPacket.DIRECTION_OUTBOUND);
+        PcapngWriter.writeEnhancedPacket(batchBuffer, rawPacket.getTimestampNanos(), rawPacket.getData(), rawPacket.getOriginalLength(), rawPacket.getDirection());
+        return batchBuffer;
+    }
+
+    private ByteBuffer copyAndWrite(SnapLength snapLength) {
+        PacketView view = nextPacket();
+        RawPacket rawPacket = new RawPacket(CaptureClock.nowNanos(), view.copy(snapLength.capturedLength(view)), view.totalLength(), RawPacket.DIRECTION_OUTBOUND);
+        PcapRecord.writeRecordHeader(batchBuffer, rawPacket.getTimestampNanos(), rawPacket.getData().length, rawPacket.getOriginalLength());
+        batchBuffer.put(rawPacket.getData());
+        return batchBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeRecordHeader() {
+        PacketView view = nextPacket();
+        ByteBuffer packet = view.buffer().duplicate();
+        packet.limit(view.totalLength());
+        PcapRecord.writeRecordHeader(batchBuffer, CaptureClock.nowNanos(), view.totalLength(), view.totalLength());
+        batchBuffer.put(packet);
+        return batchBuffer;
+    }
+
+    @Benchmark
+    public void ringAdd() {
+        PacketView view = nextPacket();
+        RawPacketManager.getInstance().addPacket(CaptureClock.nowNanos(), view.buffer(), view.totalLength(), view.totalLength(), RawPacket.DIRECTION_OUTBOUND);
+    }
+
+    private PacketView nextPacket() {
+        ByteBuffer packet = packets[next];
+        next = (next + 1) & (PACKETS - 1);
+        // Start over before a maximum-size record could overflow, like a flush
+        if (batchBuffer.remaining() < Packet.MTU + PcapngWriter.ENHANCED_PACKET_OVERHEAD + 3) batchBuffer.clear();
+        return packetView.wrap(packet);
+    }
+}
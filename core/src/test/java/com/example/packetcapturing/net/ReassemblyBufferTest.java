@@ -0,0 +1,125 @@
+package com.example.packetcapturing.net;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReassemblyBufferTest {
+    private static final long MAX_SEQUENCE = 0xFFFFFFFFL;
+
+    @Test
+    public void heldSegmentsComeBackInOrderOnceTheGapFills() {
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        assertTrue(buffer.add(1200, payload(1200, 100)));
+        assertTrue(buffer.add(1100, payload(1100, 100)));
+        assertNull(buffer.poll(1000));
+
+        assertPayload(1100, 100, buffer.poll(1100));
+        assertPayload(1200, 100, buffer.poll(1200));
+        assertNull(buffer.poll(1300));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void overlappingSegmentIsTrimmed() {
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        assertTrue(buffer.add(1050, payload(1050, 100)));
+        assertTrue(buffer.add(1000, payload(1000, 100)));
+
+        assertPayload(1000, 100, buffer.poll(1000));
+        // Only the 50 bytes past what was just delivered
+        assertPayload(1100, 50, buffer.poll(1100));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void duplicatesAreNotHeldTwice() {
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        assertTrue(buffer.add(1000, payload(1000, 100)));
+        assertFalse(buffer.add(1000, payload(1000, 100)));
+        assertFalse(buffer.add(1000, payload(1000, 60)));
+        // A longer retransmission carries new data and is kept
+        assertTrue(buffer.add(1000, payload(1000, 150)));
+
+        // The shorter copy is covered by the longer one and dropped
+        assertPayload(1000, 150, buffer.poll(1000));
+        assertNull(buffer.poll(1150));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void segmentsAlreadyDeliveredAreDropped() {
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        assertTrue(buffer.add(900, payload(900, 50)));
+        assertTrue(buffer.add(960, payload(960, 40)));
+        assertTrue(buffer.add(1000, payload(1000, 10)));
+        assertPayload(1000, 10, buffer.poll(1000));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void holdsAtMost64Segments() {
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        for (int i = 0; i < 64; i++) assertTrue(buffer.add(2000 + i * 10, payload(2000 + i * 10, 10)));
+        assertFalse(buffer.add(1000, payload(1000, 10)));
+        assertFalse(buffer.add(5000, payload(5000, 10)));
+
+        // Draining makes room again
+        assertPayload(2000, 10, buffer.poll(2000));
+        assertTrue(buffer.add(5000, payload(5000, 10)));
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll(2010));
+    }
+
+    @Test
+    public void sequenceNumbersWrapAround() {
+        assertTrue(ReassemblyBuffer.compare(MAX_SEQUENCE - 15, 0x10) < 0);
+        assertTrue(ReassemblyBuffer.compare(0x10, MAX_SEQUENCE - 15) > 0);
+        assertEquals(0, ReassemblyBuffer.compare(MAX_SEQUENCE, MAX_SEQUENCE));
+
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        long beforeWrap = MAX_SEQUENCE - 31; // 32 bytes up to 2^32 - 1
+        assertTrue(buffer.add(0x10, payload(0x10, 16)));
+        assertTrue(buffer.add(0, payload(0, 16)));
+        assertTrue(buffer.add(beforeWrap, payload(beforeWrap, 32)));
+        assertNull(buffer.poll(beforeWrap - 100));
+
+        assertPayload(beforeWrap, 32, buffer.poll(beforeWrap));
+        assertPayload(0, 16, buffer.poll(0));
+        assertPayload(0x10, 16, buffer.poll(0x10));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void segmentStraddlingTheWrapIsTrimmed() {
+        ReassemblyBuffer buffer = new ReassemblyBuffer();
+        long start = MAX_SEQUENCE - 7;
+        assertTrue(buffer.add(start, payload(start, 24)));
+        // The first 8 bytes, up to 2^32, were delivered already
+        assertPayload(0, 16, buffer.poll(0));
+        assertTrue(buffer.isEmpty());
+    }
+
+    /**
+     * Payload whose bytes encode their own sequence number, so trimming can be checked.
+     */
+    private static ByteBuffer payload(long sequenceNumber, int length) {
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) payload.put((byte) (sequenceNumber + i));
+        payload.flip();
+        return payload;
+    }
+
+    private static void assertPayload(long sequenceNumber, int length, ByteBuffer segment) {
+        assertEquals(length, segment.remaining());
+        for (int i = 0; i < length; i++) assertEquals((byte) (sequenceNumber + i), segment.get(segment.position() + i));
+        ByteBufferPool.release(segment);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.packetcapturing.net;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TCBTableTest {
+    private static final int SERVER = 0x5DB8D822; // 93.184.216.34
+
+    private final List<TCB> tcbs = new ArrayList<>();
+
+    @After
+    public void closeChannels() {
+        for (TCB tcb : tcbs) tcb.closeChannel();
+    }
+
+    @Test
+    public void halfClosedIsEvictedBeforeOlderEstablished() throws IOException {
+        TCBTable table = new TCBTable(4 * TCBTable.BYTES_PER_CONNECTION);
+        TCB oldest = put(table, 40000, TCB.TCBStatus.ESTABLISHED);
+        put(table, 40001, TCB.TCBStatus.ESTABLISHED);
+        put(table, 40002, TCB.TCBStatus.ESTABLISHED);
+        TCB halfClosed = put(table, 40003, TCB.TCBStatus.LAST_ACK);
+
+        put(table, 40004, TCB.TCBStatus.SYN_SENT);
+        assertEquals(4, table.size());
+        assertNull(table.getTCB(halfClosed.key));
+        assertTrue(halfClosed.closed);
+        assertSame(oldest, table.getTCB(oldest.key));
+        assertEquals(1, table.getEvictionsByStatus()[TCB.TCBStatus.LAST_ACK.ordinal()]);
+    }
+
+    @Test
+    public void handshakeIsEvictedBeforeEstablishedAndClosedBeforeAll() throws IOException {
+        TCBTable table = new TCBTable(4 * TCBTable.BYTES_PER_CONNECTION);
+        TCB established = put(table, 40000, TCB.TCBStatus.ESTABLISHED);
+        TCB handshake = put(table, 40001, TCB.TCBStatus.SYN_RECEIVED);
+        TCB closeWait = put(table, 40002, TCB.TCBStatus.CLOSE_WAIT);
+        TCB closed = put(table, 40003, TCB.TCBStatus.ESTABLISHED);
+        closed.closeChannel();
+
+        put(table, 40004, TCB.TCBStatus.SYN_SENT);
+        assertNull(table.getTCB(closed.key));
+        put(table, 40005, TCB.TCBStatus.SYN_SENT);
+        assertNull(table.getTCB(closeWait.key));
+        put(table, 40006, TCB.TCBStatus.SYN_SENT);
+        assertNull(table.getTCB(handshake.key));
+        assertSame(established, table.getTCB(established.key));
+    }
+
+    @Test
+    public void oldestOfTheSameStateGoesFirst() throws IOException {
+        TCBTable table = new TCBTable(3 * TCBTable.BYTES_PER_CONNECTION);
+        TCB first = put(table, 40000, TCB.TCBStatus.ESTABLISHED);
+        TCB second = put(table, 40001, TCB.TCBStatus.ESTABLISHED);
+        TCB third = put(table, 40002, TCB.TCBStatus.ESTABLISHED);
+        // Using a connection makes it the most recently used
+        table.getTCB(first.key);
+
+        put(table, 40003, TCB.TCBStatus.ESTABLISHED);
+        assertNull(table.getTCB(second.key));
+        assertSame(first, table.getTCB(first.key));
+        assertSame(third, table.getTCB(third.key));
+    }
+
+    private TCB put(TCBTable table, int sourcePort, TCB.TCBStatus status) throws IOException {
+        long key = ConnectionTable.key(SERVER, 443, sourcePort);
+        TCB tcb = new TCB(key, 1, 1, 1, 1, SocketChannel.open(), null);
+        tcb.status = status;
+        tcbs.add(tcb);
+        table.putTCB(key, tcb);
+        return tcb;
+    }
+}
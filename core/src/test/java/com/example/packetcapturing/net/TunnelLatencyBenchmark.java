@@ -0,0 +1,105 @@
+package com.example.packetcapturing.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network to device latency of {@link TunnelWriter} compared with the sleep-polling loop that
+ * TunnelPoller still uses on pre-Lollipop devices. A pipe stands in for the TUN
+ * descriptor and packets are spaced out like interactive traffic, so the polling loop is usually
+ * asleep when one arrives.
+ *
+ * Run main() from the IDE with the unit test classpath.
+ */
+public class TunnelLatencyBenchmark {
+    private static final int PACKETS = 500;
+    // IPv4 + UDP header and a payload holding the send timestamp
+    private static final int PACKET_SIZE = 60;
+    private static final int TIMESTAMP_OFFSET = 28;
+    private static final int MAX_GAP_MICROS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        report("polling loop", run(false));
+        report("TunnelWriter", run(true));
+    }
+
+    private static long[] run(boolean eventDriven) throws Exception {
+        Pipe tunnel = Pipe.open();
+        WakeupQueue<ByteBuffer> networkToDeviceQueue = new WakeupQueue<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CaptureTap captureTap = new CaptureTap(new ConcurrentLinkedQueue<>(), SnapLength.FULL);
+        if (eventDriven) executor.submit(new TunnelWriter(tunnel.sink(), networkToDeviceQueue, captureTap));
+        else executor.submit(new PollingLoop(tunnel.sink(), networkToDeviceQueue));
+
+        Random random = new Random(42);
+        ByteBuffer deviceBuffer = ByteBuffer.allocate(PACKET_SIZE);
+        long[] latencies = new long[PACKETS];
+        for (int i = 0; i < PACKETS; i++) {
+            TimeUnit.MICROSECONDS.sleep(random.nextInt(MAX_GAP_MICROS));
+
+            ByteBuffer packet = ByteBufferPool.acquire();
+            packet.put((byte) 0x45).put((byte) 0).putShort((short) PACKET_SIZE).putInt(0)
+                    .put((byte) 64).put((byte) PacketView.PROTOCOL_UDP).putShort((short) 0)
+                    .putInt(0x08080808).putInt(0x0A000002)
+                    .putShort((short) 53).putShort((short) 40000).putShort((short) (PACKET_SIZE - 20)).putShort((short) 0);
+            packet.putLong(TIMESTAMP_OFFSET, System.nanoTime());
+            packet.position(PACKET_SIZE);
+            networkToDeviceQueue.offer(packet);
+
+            deviceBuffer.clear();
+            while (deviceBuffer.hasRemaining()) tunnel.source().read(deviceBuffer);
+            latencies[i] = System.nanoTime() - deviceBuffer.getLong(TIMESTAMP_OFFSET);
+        }
+
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        tunnel.source().close();
+        return latencies;
+    }
+
+    private static void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.printf("%-14s p50=%7dus p90=%7dus p99=%7dus max=%7dus%n", name,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), latencies[latencies.length - 1] / 1000);
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        return sorted[(sorted.length - 1) * p / 100] / 1000;
+    }
+
+    // Network to device half of VPNRunnable.run(): poll once, sleep 10 ms when idle
+    private static class PollingLoop implements Runnable {
+        private final Pipe.SinkChannel vpnOutput;
+        private final WakeupQueue<ByteBuffer> networkToDeviceQueue;
+
+        PollingLoop(Pipe.SinkChannel vpnOutput, WakeupQueue<ByteBuffer> networkToDeviceQueue) {
+            this.vpnOutput = vpnOutput;
+            this.networkToDeviceQueue = networkToDeviceQueue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    ByteBuffer bufferFromNetwork = networkToDeviceQueue.poll();
+                    if (bufferFromNetwork != null) {
+                        bufferFromNetwork.flip();
+                        while (bufferFromNetwork.hasRemaining()) vpnOutput.write(bufferFromNetwork);
+                        ByteBufferPool.release(bufferFromNetwork);
+                    } else {
+                        Thread.sleep(10);
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                // Benchmark finished
+            }
+        }
+    }
+}
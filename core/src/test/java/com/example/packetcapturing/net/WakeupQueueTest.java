@@ -0,0 +1,35 @@
+package com.example.packetcapturing.net;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WakeupQueueTest {
+    @Test
+    public void boundedQueueRefusesOffersWhenFull() throws InterruptedException {
+        WakeupQueue<Integer> queue = new WakeupQueue<>(2);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertEquals(2, queue.size());
+
+        assertEquals(Integer.valueOf(1), queue.take());
+        assertTrue(queue.offer(4));
+        assertEquals(Integer.valueOf(2), queue.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void unboundedQueueTakesEverything() {
+        WakeupQueue<Integer> queue = new WakeupQueue<>();
+        for (int i = 0; i < 100000; i++) assertTrue(queue.offer(i));
+        assertEquals(100000, queue.size());
+    }
+}
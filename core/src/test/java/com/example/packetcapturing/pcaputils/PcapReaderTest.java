@@ -0,0 +1,306 @@
+package com.example.packetcapturing.pcaputils;
+
+import com.example.packetcapturing.model.RawPacket;
+import com.example.packetcapturing.net.PacketView;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PcapReaderTest {
+    private static final int DEVICE = 0x0A000002; // 10.0.0.2
+    // Whole microseconds, so classic PCAP keeps the times exactly
+    private static final long START_NANOS = 1700000000123456000L;
+    private static final long STEP_NANOS = 16000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(7);
+
+    @Test
+    public void pcapngRoundTrip() throws IOException {
+        File file = folder.newFile("capture.pcapng");
+        List<Packet> packets = packets(0, 400);
+        writePcapng(file, packets, false);
+        assertQueries(file, packets, true);
+        // The second open reads the index saved by the first
+        assertTrue(indexFile(file).isFile());
+        assertQueries(file, packets, true);
+    }
+
+    @Test
+    public void pcapRoundTrip() throws IOException {
+        File file = folder.newFile("capture.pcap");
+        List<Packet> packets = packets(0, 400);
+        writePcap(file, packets, false);
+        assertQueries(file, packets, false);
+        assertQueries(file, packets, false);
+    }
+
+    @Test
+    public void freshIndexIsReused() throws IOException {
+        File file = folder.newFile("capture.pcapng");
+        List<Packet> packets = packets(0, 100);
+        writePcapng(file, packets, false);
+        PcapReader.open(file).close();
+
+        File index = indexFile(file);
+        assertTrue(index.setLastModified(1000000L));
+        assertQueries(file, packets, true);
+        assertEquals(1000000L, index.lastModified());
+    }
+
+    @Test
+    public void appendedCaptureIsScannedAgain() throws IOException {
+        File file = folder.newFile("capture.pcap");
+        List<Packet> packets = packets(0, 100);
+        writePcap(file, packets, false);
+        assertQueries(file, packets, false);
+
+        List<Packet> more = packets(100, 150);
+        writePcap(file, more, true);
+        packets.addAll(more);
+        assertQueries(file, packets, false);
+    }
+
+    @Test
+    public void rewrittenCaptureOfTheSameLengthIsScannedAgain() throws IOException {
+        File file = folder.newFile("capture.pcapng");
+        List<Packet> packets = packets(0, 100);
+        writePcapng(file, packets, false);
+        assertQueries(file, packets, true);
+        long length = file.length();
+        long modified = file.lastModified();
+
+        // Same sizes, one packet moved to the end of the capture's time span
+        Packet moved = packets.get(10);
+        packets.set(10, new Packet(START_NANOS + 200 * STEP_NANOS, moved.data, moved.originalLength, moved.direction));
+        writePcapng(file, packets, false);
+        assertTrue(file.setLastModified(modified + 10000));
+        assertEquals(length, file.length());
+        assertQueries(file, packets, true);
+    }
+
+    @Test
+    public void truncatedIndexIsRebuilt() throws IOException {
+        File file = folder.newFile("capture.pcapng");
+        List<Packet> packets = packets(0, 200);
+        writePcapng(file, packets, false);
+        PcapReader.open(file).close();
+        File index = indexFile(file);
+        long indexLength = index.length();
+
+        for (long length : new long[]{indexLength / 2, indexLength - 1, 30, 6, 0}) {
+            RandomAccessFile truncated = new RandomAccessFile(index, "rw");
+            try {
+                truncated.setLength(length);
+            } finally {
+                truncated.close();
+            }
+            assertQueries(file, packets, true);
+            assertEquals(indexLength, index.length());
+        }
+    }
+
+    private void assertQueries(File file, List<Packet> packets, boolean pcapng) throws IOException {
+        PcapReader reader = PcapReader.open(file);
+        try {
+            assertEquals(packets.size(), reader.recordCount());
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            List<FlowKey> flows = new ArrayList<>();
+            for (Packet packet : packets) {
+                first = Math.min(first, packet.timestampNanos);
+                last = Math.max(last, packet.timestampNanos);
+                if (!flows.contains(packet.flow())) flows.add(packet.flow());
+            }
+            assertEquals(first, reader.firstTimestampNanos());
+            assertEquals(last, reader.lastTimestampNanos());
+            assertEquals(flows, reader.flows());
+
+            List<long[]> ranges = new ArrayList<>(Arrays.asList(
+                    new long[]{Long.MIN_VALUE, Long.MAX_VALUE},
+                    new long[]{first, last},
+                    new long[]{first, last + 1},
+                    new long[]{last + 1, Long.MAX_VALUE},
+                    new long[]{Long.MIN_VALUE, first},
+                    new long[]{first + 1500000000L, first + 1500000000L}));
+            for (int i = 0; i < 20; i++) {
+                long from = first - STEP_NANOS + (long) (random.nextDouble() * (last - first + 2 * STEP_NANOS));
+                ranges.add(new long[]{from, from + (long) (random.nextDouble() * 3000000000L)});
+            }
+
+            for (long[] range : ranges) {
+                assertRecords(expected(packets, null, range), reader.query(null, range[0], range[1]), pcapng);
+                for (FlowKey flow : flows) {
+                    assertRecords(expected(packets, flow, range), reader.query(flow, range[0], range[1]), pcapng);
+                }
+            }
+            for (FlowKey flow : flows) assertEquals(expected(packets, flow, ranges.get(0)).size(), reader.recordCount(flow));
+
+            // Either endpoint order finds the flow
+            FlowKey reversed = FlowKey.of(PacketView.PROTOCOL_TCP, 0x5DB8D822, 443, DEVICE, 40000);
+            assertEquals(flows.get(0), reversed);
+            assertEquals(reader.recordCount(flows.get(0)), reader.query(reversed, Long.MIN_VALUE, Long.MAX_VALUE).size());
+            assertEquals(0, reader.query(FlowKey.of(PacketView.PROTOCOL_UDP, DEVICE, 1, DEVICE, 2), Long.MIN_VALUE, Long.MAX_VALUE).size());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * What a query should return: a flow's records in time order, all records in file order.
+     */
+    private static List<Packet> expected(List<Packet> packets, FlowKey flow, long[] range) {
+        List<Packet> records = new ArrayList<>();
+        for (Packet packet : packets) {
+            if ((flow == null || flow.equals(packet.flow())) && packet.timestampNanos >= range[0] && packet.timestampNanos < range[1]) {
+                records.add(packet);
+            }
+        }
+        if (flow != null) {
+            Collections.sort(records, new Comparator<Packet>() {
+                @Override
+                public int compare(Packet a, Packet b) {
+                    return Long.compare(a.timestampNanos, b.timestampNanos);
+                }
+            });
+        }
+        return records;
+    }
+
+    private static void assertRecords(List<Packet> expected, List<PcapReader.Record> records, boolean pcapng) {
+        assertEquals(expected.size(), records.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Packet packet = expected.get(i);
+            PcapReader.Record record = records.get(i);
+            assertEquals(packet.timestampNanos, record.timestampNanos());
+            assertEquals(packet.flow(), record.flow());
+            ByteBuffer data = record.packet();
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            assertArrayEquals(packet.data, bytes);
+            if (pcapng) {
+                assertEquals(packet.originalLength, record.originalLength());
+                assertEquals(packet.direction, record.direction());
+            } else {
+                // Classic PCAP counts the link layer header it adds
+                assertEquals(PcapRecord.LINK_LAYER_HEADER_SIZE + packet.originalLength, record.originalLength());
+                assertEquals(0, record.direction());
+            }
+        }
+    }
+
+    /**
+     * Packets first to end - 1 of a capture with a TCP, a UDP and an ICMP flow. Times move
+     * forward with some jitter, so file order is not quite time order, and never repeat.
+     */
+    private List<Packet> packets(int first, int end) {
+        List<Packet> packets = new ArrayList<>();
+        for (int i = first; i < end; i++) {
+            long timestampNanos = START_NANOS + i * STEP_NANOS + (random.nextInt(14001) - 7000) * 1000L;
+            int direction = random.nextBoolean() ? RawPacket.DIRECTION_INBOUND : RawPacket.DIRECTION_OUTBOUND;
+            boolean outbound = direction == RawPacket.DIRECTION_OUTBOUND;
+            int kind = i % 5;
+            byte[] data;
+            if (kind < 2) {
+                data = ip4(PacketView.PROTOCOL_TCP, outbound, 0x5DB8D822, 40000, 443, 20, 1 + random.nextInt(600));
+            } else if (kind < 4) {
+                data = ip4(PacketView.PROTOCOL_UDP, outbound, 0x08080808, 53000, 53, 8, random.nextInt(200));
+            } else {
+                data = ip4(1, outbound, 0x01010101, 0, 0, 8, 56);
+            }
+            // Every seventh packet is cut short by the snap length
+            int originalLength = data.length;
+            if (i % 7 == 0) data = Arrays.copyOf(data, 40);
+            packets.add(new Packet(timestampNanos, data, originalLength, direction));
+        }
+        return packets;
+    }
+
+    private byte[] ip4(int protocol, boolean outbound, int server, int devicePort, int serverPort, int headerSize, int payloadSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + headerSize + payloadSize);
+        buffer.put(0, (byte) 0x45).putShort(2, (short) buffer.capacity());
+        buffer.put(8, (byte) 64).put(9, (byte) protocol);
+        buffer.putInt(12, outbound ? DEVICE : server).putInt(16, outbound ? server : DEVICE);
+        if (protocol != 1) buffer.putShort(20, (short) (outbound ? devicePort : serverPort)).putShort(22, (short) (outbound ? serverPort : devicePort));
+        for (int i = 20 + 4; i < buffer.capacity(); i++) buffer.put(i, (byte) random.nextInt());
+        return buffer.array();
+    }
+
+    private static void writePcapng(File file, List<Packet> packets, boolean append) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        if (!append) {
+            PcapngWriter.writeSectionHeader(buffer, "PcapReaderTest");
+            PcapngWriter.writeInterfaceDescription(buffer, "tun0", 65535);
+        }
+        for (Packet packet : packets) {
+            PcapngWriter.writeEnhancedPacket(buffer, packet.timestampNanos, packet.data, packet.originalLength, packet.direction);
+        }
+        write(file, buffer, append);
+    }
+
+    private static void writePcap(File file, List<Packet> packets, boolean append) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        if (!append) buffer.put(new PcapFileHeader(65535).getBytes());
+        for (Packet packet : packets) {
+            PcapRecord.writeRecordHeader(buffer, packet.timestampNanos, packet.data.length, packet.originalLength);
+            buffer.put(packet.data);
+        }
+        write(file, buffer, append);
+    }
+
+    private static void write(File file, ByteBuffer buffer, boolean append) throws IOException {
+        buffer.flip();
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            while (buffer.hasRemaining()) out.getChannel().write(buffer);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static File indexFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    private static final class Packet {
+        final long timestampNanos;
+        final byte[] data;
+        final int originalLength;
+        final int direction;
+
+        Packet(long timestampNanos, byte[] data, int originalLength, int direction) {
+            this.timestampNanos = timestampNanos;
+            this.data = data;
+            this.originalLength = originalLength;
+            this.direction = direction;
+        }
+
+        FlowKey flow() {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            int protocol = buffer.get(9) & 0xFF;
+            boolean ports = protocol != 1;
+            return FlowKey.of(protocol, buffer.getInt(12), ports ? buffer.getShort(20) & 0xFFFF : 0,
+                    buffer.getInt(16), ports ? buffer.getShort(22) & 0xFFFF : 0);
+        }
+    }
+}